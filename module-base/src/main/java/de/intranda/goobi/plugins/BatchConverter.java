@@ -0,0 +1,148 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.goobi.beans.Process;
+import org.goobi.beans.Step;
+
+import de.sub.goobi.persistence.managers.ProcessManager;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Converts many processes at once, e.g. after a large delivery of a publisher. The conversions run on a bounded pool of worker threads. The
+ * compiled mapping plans and the ruleset preferences ({@link PreferencesCache}) are shared by all workers.
+ */
+@Log4j2
+public class BatchConverter {
+
+    private static final String PLUGIN_TITLE = "intranda_step_pdf_book_interchange_convert";
+
+    private BatchConverter() {
+    }
+
+    /**
+     * converts the given processes with one worker per available processor
+     *
+     * @param processIds ids of the processes to convert
+     * @return outcome of all conversions
+     */
+    public static BatchResult convert(List<Integer> processIds) {
+        return convert(processIds, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * converts the given processes. Each process must contain a step that uses this plugin, its configuration is used for the conversion
+     *
+     * @param processIds ids of the processes to convert
+     * @param threads maximum number of conversions that run at the same time
+     * @return outcome of all conversions
+     */
+    public static BatchResult convert(List<Integer> processIds, int threads) {
+        int poolSize = Math.max(1, threads);
+        // bounded queue, if it is full the submitting thread converts the process itself
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(poolSize * 2),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        List<ProcessOutcome> outcomes = Collections.synchronizedList(new ArrayList<>());
+
+        long start = System.currentTimeMillis();
+        for (Integer processId : processIds) {
+            executor.execute(() -> outcomes.add(convertProcess(processId)));
+        }
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.info("PdfBookInterchangeConvert: Batch conversion running, " + outcomes.size() + " of " + processIds.size() + " processes done");
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        BatchResult result = new BatchResult(new ArrayList<>(outcomes), System.currentTimeMillis() - start);
+        log.info("PdfBookInterchangeConvert: Batch conversion finished. " + result.getCount(Status.FINISHED) + " finished, "
+                + result.getCount(Status.ERROR) + " failed, " + result.getCount(Status.SKIPPED) + " skipped in " + result.getDuration() + " ms ("
+                + String.format("%.2f", result.getThroughput()) + " processes/s)");
+        return result;
+    }
+
+    private static ProcessOutcome convertProcess(Integer processId) {
+        long start = System.currentTimeMillis();
+        try {
+            Process process = ProcessManager.getProcessById(processId);
+            if (process == null) {
+                return new ProcessOutcome(processId, Status.SKIPPED, "Process not found", 0);
+            }
+            Step step = null;
+            for (Step candidate : process.getSchritte()) {
+                if (PLUGIN_TITLE.equals(candidate.getStepPlugin())) {
+                    step = candidate;
+                    break;
+                }
+            }
+            if (step == null) {
+                return new ProcessOutcome(processId, Status.SKIPPED, "No step uses the plugin " + PLUGIN_TITLE, 0);
+            }
+            // no asynchronous conversion of the process can start while the batch converts it
+            ConversionProgress progress = ConversionExecutor.claim(processId);
+            if (progress == null) {
+                return new ProcessOutcome(processId, Status.SKIPPED, "A conversion of the process is already running", 0);
+            }
+            try {
+                PdfBookInterchangeConvertStepPlugin plugin = new PdfBookInterchangeConvertStepPlugin();
+                plugin.initialize(step, "");
+                // the batch has its own workers, the step is closed like after an asynchronous run
+                plugin.runAndCloseStep(progress);
+            } finally {
+                ConversionExecutor.release(progress);
+            }
+            if (progress.getState() == ConversionProgress.State.FINISHED) {
+                return new ProcessOutcome(processId, Status.FINISHED, null, System.currentTimeMillis() - start);
+            }
+            return new ProcessOutcome(processId, Status.ERROR, "The conversion ended with the state " + progress.getState(),
+                    System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            log.error("PdfBookInterchangeConvert: Error in batch conversion! ProcessID:" + processId, e);
+            return new ProcessOutcome(processId, Status.ERROR, e.getMessage(), System.currentTimeMillis() - start);
+        }
+    }
+
+    public enum Status {
+        FINISHED,
+        ERROR,
+        SKIPPED
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class ProcessOutcome {
+        private Integer processId;
+        private Status status;
+        private String message;
+        private long duration;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class BatchResult {
+        private List<ProcessOutcome> outcomes;
+        private long duration;
+
+        public long getCount(Status status) {
+            return outcomes.stream().filter(outcome -> outcome.getStatus() == status).count();
+        }
+
+        /**
+         * @return converted processes per second
+         */
+        public double getThroughput() {
+            return duration == 0 ? 0 : outcomes.size() * 1000d / duration;
+        }
+    }
+}
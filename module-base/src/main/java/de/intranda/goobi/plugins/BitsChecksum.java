@@ -0,0 +1,48 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 checksum of a BITS file and the mapping configuration it is converted with. If both are unchanged, a repeated execution of the plugin
+ * has nothing to do.
+ */
+public class BitsChecksum {
+
+    private BitsChecksum() {
+    }
+
+    /**
+     * 
+     * @param bitsFile the BITS file
+     * @param configuration fingerprint of the mapping configuration, see {@link MappingPlan#getFingerprint()}
+     * @return the checksum as hex string
+     */
+    public static String compute(Path bitsFile, String configuration) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+        digest.update(configuration.getBytes(StandardCharsets.UTF_8));
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(bitsFile)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,245 @@
+package de.intranda.goobi.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.catalog.CatalogFeatures;
+import javax.xml.catalog.CatalogManager;
+import javax.xml.catalog.CatalogResolver;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Resolves the DTD modules and external entities of the BITS files without going to the network for every file. The files are looked up in the
+ * configured catalog folder, by their public or system id in the XML catalog 'catalog.xml' of the folder, if there is one, and otherwise by their
+ * path: entities that are referenced relative to the BITS file keep this relative path, remote entities are stored below a folder with the name
+ * of their host, e.g. 'jats.nlm.nih.gov/extensions/bits/2.0/BITS-book2.dtd'. Files that are only available remotely are downloaded once,
+ * unless the resolver works offline. The content of the resolved files is kept in a cache of limited size that is shared by all plugin
+ * executions of the JVM. The cache only saves reading and downloading the files, the parser still parses the DTD of every BITS file.
+ */
+@Log4j2
+public class BitsEntityResolver implements EntityResolver, XMLResolver {
+
+    static final String CATALOG_FILE = "catalog.xml";
+    // maximum size of the cached content of all entities, the least recently used entities are removed first
+    private static final long MAX_CACHE_SIZE = 32L * 1024 * 1024;
+
+    private static final EntityCache ENTITY_CACHE = new EntityCache(MAX_CACHE_SIZE);
+
+    private final Path catalogFolder;
+    private final boolean offline;
+    // the XML catalog of the catalog folder, null if it has none
+    private final CatalogResolver catalog;
+
+    /**
+     *
+     * @param catalogFolder folder that contains local copies of the DTD modules, may be null
+     * @param offline if true, entities that are not available locally are not downloaded
+     */
+    public BitsEntityResolver(Path catalogFolder, boolean offline) {
+        this.catalogFolder = catalogFolder == null ? null : catalogFolder.toAbsolutePath().normalize();
+        this.offline = offline;
+        this.catalog = createCatalog(this.catalogFolder);
+    }
+
+    private static CatalogResolver createCatalog(Path catalogFolder) {
+        if (catalogFolder == null || !Files.isRegularFile(catalogFolder.resolve(CATALOG_FILE))) {
+            return null;
+        }
+        // ids that are not part of the catalog are looked up by their path
+        CatalogFeatures features = CatalogFeatures.builder().with(CatalogFeatures.Feature.RESOLVE, "continue").build();
+        return CatalogManager.catalogResolver(features, catalogFolder.resolve(CATALOG_FILE).toUri());
+    }
+
+    @Override
+    public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
+        byte[] content = getContent(publicId, systemId, null);
+        if (content == null) {
+            return null;
+        }
+        InputSource source = new InputSource(new ByteArrayInputStream(content));
+        source.setPublicId(publicId);
+        source.setSystemId(systemId);
+        return source;
+    }
+
+    @Override
+    public Object resolveEntity(String publicID, String systemID, String baseURI, String namespace) throws XMLStreamException {
+        String systemId = systemID;
+        if (systemID != null && baseURI != null) {
+            try {
+                systemId = URI.create(baseURI).resolve(systemID).toString();
+            } catch (IllegalArgumentException e) {
+                // keep the system id as it is
+            }
+        }
+        try {
+            byte[] content = getContent(publicID, systemId, baseURI);
+            return content == null ? null : new ByteArrayInputStream(content);
+        } catch (IOException e) {
+            throw new XMLStreamException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * returns the content of the entity
+     *
+     * @param publicId public id of the entity, may be null
+     * @param systemId absolute system id of the entity
+     * @param documentId system id of the BITS file, entities that were expected next to it are looked up by their path relative to it. May be
+     *            null
+     * @return the content or null, if the entity is a local file that shall be read by the parser itself
+     * @throws IOException if the entity is not available offline and may not be downloaded
+     */
+    byte[] getContent(String publicId, String systemId, String documentId) throws IOException {
+        if (StringUtils.isBlank(systemId)) {
+            return null;
+        }
+        boolean localFile = systemId.startsWith("file:");
+        if (localFile && Files.exists(Paths.get(URI.create(systemId)))) {
+            // entities that belong to the delivered file are read by the parser and never cached
+            return null;
+        }
+
+        // local copy in the catalog folder
+        Path catalogFile = findInCatalog(publicId, systemId, documentId);
+        if (catalogFile != null) {
+            String key = catalogFile.toString();
+            long lastModified = Files.getLastModifiedTime(catalogFile).toMillis();
+            byte[] content = ENTITY_CACHE.get(key, lastModified);
+            if (content == null) {
+                content = Files.readAllBytes(catalogFile);
+                ENTITY_CACHE.put(key, content, lastModified);
+            }
+            return content;
+        }
+
+        // remote entity, downloaded only once
+        byte[] content = ENTITY_CACHE.get(systemId, 0);
+        if (content == null) {
+            if (offline || localFile) {
+                throw new IOException("The entity '" + systemId + "' is not available offline. Please add it to the entity catalog.");
+            }
+            log.info("PdfBookInterchangeConvert: Downloading entity " + systemId);
+            try (InputStream in = new URL(systemId).openStream()) {
+                content = in.readAllBytes();
+            }
+            ENTITY_CACHE.put(systemId, content, 0);
+        }
+        return content;
+    }
+
+    /**
+     * @return the file of the entity in the catalog folder or null if the folder does not contain it
+     */
+    private Path findInCatalog(String publicId, String systemId, String documentId) {
+        if (catalogFolder == null) {
+            return null;
+        }
+        if (catalog != null) {
+            InputSource source;
+            // the resolver of the JDK is not thread safe
+            synchronized (catalog) {
+                source = catalog.resolveEntity(publicId, systemId);
+            }
+            if (source != null && source.getSystemId() != null && source.getSystemId().startsWith("file:")) {
+                Path file = Paths.get(URI.create(source.getSystemId()));
+                if (Files.isRegularFile(file)) {
+                    return file;
+                }
+            }
+        }
+        String relativePath = getRelativePath(systemId, documentId);
+        if (relativePath == null) {
+            return null;
+        }
+        Path file = catalogFolder.resolve(relativePath).normalize();
+        // relative paths must not leave the catalog folder
+        return file.startsWith(catalogFolder) && Files.isRegularFile(file) ? file : null;
+    }
+
+    /**
+     * @return the path of the entity relative to the folder of the BITS file, if it was expected there, otherwise the host and path of a remote
+     *         entity. Null for all other entities
+     */
+    private static String getRelativePath(String systemId, String documentId) {
+        try {
+            if (documentId != null) {
+                String documentFolder = documentId.substring(0, documentId.lastIndexOf('/') + 1);
+                if (!documentFolder.isEmpty() && systemId.startsWith(documentFolder)) {
+                    return new URI(null, null, systemId.substring(documentFolder.length()), null).getPath();
+                }
+            }
+            URI uri = new URI(systemId);
+            if (uri.getHost() != null && uri.getPath() != null) {
+                return uri.getHost() + uri.getPath();
+            }
+        } catch (URISyntaxException e) {
+            // neither a relative nor a remote entity
+        }
+        return null;
+    }
+
+    /**
+     * content of the resolved entities, limited to a maximum size. Entities that are larger than the cache are not kept
+     */
+    private static class EntityCache {
+        private final long maxSize;
+        // in the order of their last use
+        private final Map<String, CachedEntity> entities = new LinkedHashMap<>(16, 0.75f, true);
+        private long size;
+
+        private EntityCache(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * @return the content or null if the entity is not cached or was modified since
+         */
+        private synchronized byte[] get(String key, long lastModified) {
+            CachedEntity cached = entities.get(key);
+            return cached == null || cached.lastModified != lastModified ? null : cached.content;
+        }
+
+        private synchronized void put(String key, byte[] content, long lastModified) {
+            CachedEntity previous = entities.remove(key);
+            if (previous != null) {
+                size -= previous.content.length;
+            }
+            if (content.length > maxSize) {
+                return;
+            }
+            entities.put(key, new CachedEntity(content, lastModified));
+            size += content.length;
+            Iterator<CachedEntity> leastRecentlyUsed = entities.values().iterator();
+            while (size > maxSize) {
+                size -= leastRecentlyUsed.next().content.length;
+                leastRecentlyUsed.remove();
+            }
+        }
+    }
+
+    @AllArgsConstructor
+    private static class CachedEntity {
+        private byte[] content;
+        private long lastModified;
+    }
+}
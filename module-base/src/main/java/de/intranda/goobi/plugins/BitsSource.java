@@ -0,0 +1,272 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamException;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.EntityResolver2;
+
+/**
+ * A delivered BITS file, either a plain XML file, a gzip compressed XML file (*.xml.gz) or a zip package with the XML file and its entity files.
+ * Compressed files are decompressed while they are parsed, nothing is extracted to disk. External entities of a zip package are resolved from
+ * the entries of the package, all other entities by the configured {@link BitsEntityResolver}.
+ */
+public class BitsSource implements Closeable, XMLResolver {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // separates the path of the package and the entry in the system ids of zip entries
+    private static final String ENTRY_SEPARATOR = "!/";
+
+    private final Path file;
+    private final BitsEntityResolver entityResolver;
+    private ZipFile zipFile;
+    private ZipEntry xmlEntry;
+    // entries of the zip package by their normalized name
+    private final Map<String, ZipEntry> entries = new HashMap<>();
+
+    private BitsSource(Path file, BitsEntityResolver entityResolver) {
+        this.file = file;
+        this.entityResolver = entityResolver;
+    }
+
+    /**
+     * opens the delivered file. A zip package must contain exactly one XML file in its top most folder that contains XML files
+     *
+     * @param file plain, gzip compressed or zipped BITS file
+     * @param entityResolver resolver for the entities that are not part of the package, may be null
+     * @throws IOException if the zip package can not be read or contains no or more than one BITS file
+     */
+    public static BitsSource open(Path file, BitsEntityResolver entityResolver) throws IOException {
+        BitsSource source = new BitsSource(file, entityResolver);
+        if (isZip(file)) {
+            source.openZip();
+        }
+        return source;
+    }
+
+    /**
+     * checks if the delivered file can contain a BITS file. Only the directory of a zip package is read, a package without XML files, e.g. with
+     * the images of the book, is no BITS file
+     *
+     * @param file plain, gzip compressed or zipped file
+     * @return false if the file is a zip package without XML files
+     * @throws IOException if the zip package can not be read
+     */
+    public static boolean isBitsFile(Path file) throws IOException {
+        if (!isZip(file)) {
+            return true;
+        }
+        try (ZipFile zip = new ZipFile(file.toFile())) {
+            Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+            while (zipEntries.hasMoreElements()) {
+                ZipEntry entry = zipEntries.nextElement();
+                if (!entry.isDirectory() && entry.getName().toLowerCase(Locale.ROOT).endsWith(".xml")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean isZip(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".zip");
+    }
+
+    private static boolean isGzip(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".gz");
+    }
+
+    private void openZip() throws IOException {
+        zipFile = new ZipFile(file.toFile());
+        int xmlDepth = Integer.MAX_VALUE;
+        boolean ambiguous = false;
+        Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+        while (zipEntries.hasMoreElements()) {
+            ZipEntry entry = zipEntries.nextElement();
+            if (entry.isDirectory()) {
+                continue;
+            }
+            entries.put(normalize(entry.getName()), entry);
+            if (!entry.getName().toLowerCase(Locale.ROOT).endsWith(".xml")) {
+                continue;
+            }
+            int depth = entry.getName().split("/").length;
+            if (depth < xmlDepth) {
+                xmlDepth = depth;
+                xmlEntry = entry;
+                ambiguous = false;
+            } else if (depth == xmlDepth) {
+                ambiguous = true;
+            }
+        }
+        if (xmlEntry == null || ambiguous) {
+            close();
+            throw new IOException("The package " + file.getFileName() + " contains no or more than one BITS file");
+        }
+    }
+
+    /**
+     * @return the decompressed content of the BITS file, must be closed by the caller
+     */
+    public InputStream openStream() throws IOException {
+        if (zipFile != null) {
+            return new BufferedInputStream(zipFile.getInputStream(xmlEntry), BUFFER_SIZE);
+        }
+        InputStream in = Files.newInputStream(file);
+        if (isGzip(file)) {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return new BufferedInputStream(in, BUFFER_SIZE);
+    }
+
+    /**
+     * @return the system id the relative entities of the BITS file are resolved against. Entries of a zip package get the path of the package,
+     *         followed by '!/' and the name of the entry
+     */
+    public String getSystemId() {
+        if (zipFile != null) {
+            return file.toUri().toString() + ENTRY_SEPARATOR + encode(xmlEntry.getName());
+        }
+        return file.toUri().toString();
+    }
+
+    /**
+     * @return the resolver of the entities for SAX parsers
+     */
+    public EntityResolver2 getEntityResolver() {
+        return new SaxResolver();
+    }
+
+    @Override
+    public Object resolveEntity(String publicID, String systemID, String baseURI, String namespace) throws XMLStreamException {
+        String systemId = resolve(baseURI, systemID);
+        try {
+            byte[] content = readEntity(publicID, systemId);
+            return content == null ? null : new ByteArrayInputStream(content);
+        } catch (IOException e) {
+            throw new XMLStreamException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the content of the entry of the zip package or of the entity resolved by the {@link BitsEntityResolver}, null if the parser shall
+     *         read the entity itself
+     */
+    private byte[] readEntity(String publicId, String systemId) throws IOException {
+        byte[] content = readEntry(systemId);
+        if (content == null && entityResolver != null) {
+            // entities that are missing next to the BITS file are looked up in the catalog by their path relative to it
+            content = entityResolver.getContent(publicId, systemId, getSystemId());
+        }
+        return content;
+    }
+
+    private static String resolve(String baseURI, String systemId) {
+        if (systemId == null || baseURI == null) {
+            return systemId;
+        }
+        try {
+            URI uri;
+            try {
+                uri = URI.create(systemId);
+            } catch (IllegalArgumentException e) {
+                // relative names of the package entries may contain spaces
+                uri = URI.create(encode(systemId));
+            }
+            return URI.create(baseURI).resolve(uri).toString();
+        } catch (IllegalArgumentException e) {
+            // keep the system id as it is
+            return systemId;
+        }
+    }
+
+    /**
+     * @return the content of the entry of the zip package the system id points to, or null if it is not part of the package
+     */
+    private byte[] readEntry(String systemId) throws IOException {
+        if (zipFile == null || systemId == null) {
+            return null;
+        }
+        int separator = systemId.indexOf(ENTRY_SEPARATOR);
+        if (separator < 0) {
+            return null;
+        }
+        String name = systemId.substring(separator + ENTRY_SEPARATOR.length());
+        try {
+            name = URI.create(name).getPath();
+        } catch (IllegalArgumentException e) {
+            // the parser did not encode the system id
+        }
+        ZipEntry entry = entries.get(normalize(name));
+        if (entry == null) {
+            return null;
+        }
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static String normalize(String name) {
+        return URI.create(encode(name)).normalize().getPath();
+    }
+
+    private static String encode(String name) {
+        try {
+            return new URI(null, null, name, null).getRawPath();
+        } catch (URISyntaxException e) {
+            return name;
+        }
+    }
+
+    private class SaxResolver implements EntityResolver2 {
+
+        @Override
+        public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
+            return resolveEntity(null, publicId, getSystemId(), systemId);
+        }
+
+        @Override
+        public InputSource resolveEntity(String name, String publicId, String baseURI, String systemId) throws SAXException, IOException {
+            // the parser passes the system ids of general entities as they are declared
+            String resolved = resolve(baseURI != null ? baseURI : getSystemId(), systemId);
+            byte[] content = readEntity(publicId, resolved);
+            if (content == null) {
+                return null;
+            }
+            InputSource source = new InputSource(new ByteArrayInputStream(content));
+            source.setPublicId(publicId);
+            source.setSystemId(resolved);
+            return source;
+        }
+
+        @Override
+        public InputSource getExternalSubset(String name, String baseURI) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (zipFile != null) {
+            zipFile.close();
+        }
+    }
+}
@@ -1,10 +1,23 @@
 package de.intranda.goobi.plugins;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.StringUtils;
 import org.goobi.production.enums.LogType;
@@ -24,6 +37,8 @@ import de.intranda.goobi.plugins.model.BookPart;
 import de.intranda.goobi.plugins.model.ParsedMetadata;
 import de.intranda.goobi.plugins.model.MetadataElement;
 import de.intranda.goobi.plugins.model.ParsedPerson;
+import lombok.AllArgsConstructor;
+import lombok.Setter;
 
 public class BitsXmlReader {
     private Book book;
@@ -31,14 +46,46 @@ public class BitsXmlReader {
     private static XPathFactory xpathFactory = XPathFactory.instance();
     private XPathExpression<Object> bookPartXpath;
     private PdfBookInterchangeConvertStepPlugin plugin;
+    // if true, the nested book parts of the selected nodes are read as well
+    @Setter
+    private boolean hierarchical = false;
+    // progress of an asynchronous execution, may be null
+    @Setter
+    private ConversionProgress progress;
+    // maximum number of threads that read the book parts
+    @Setter
+    private int parallelism = 1;
+    // number of book parts read by one task of the parallel extraction
+    private static final int CHUNK_SIZE = 64;
 
     public BitsXmlReader(Path xmlBitsFile, XPathExpression<Object> bookPartXpath, PdfBookInterchangeConvertStepPlugin plugin) throws JDOMException, IOException {
-        SAXBuilder jdomBuilder = new SAXBuilder();
+        this(xmlBitsFile, bookPartXpath, plugin, null, null);
+    }
+
+    /**
+     * 
+     * @param xmlBitsFile the BITS file to read, may be gzip compressed or a zip package, see {@link BitsSource}
+     * @param bookPartXpath xpath that selects the nodes of the book parts
+     * @param plugin plugin instance used for logging
+     * @param streamingParser if not null the file is streamed and only the subtrees needed by the mapping are built
+     * @param entityResolver resolver for the DTD modules and external entities, may be null
+     */
+    public BitsXmlReader(Path xmlBitsFile, XPathExpression<Object> bookPartXpath, PdfBookInterchangeConvertStepPlugin plugin,
+            StreamingBitsParser streamingParser, BitsEntityResolver entityResolver) throws JDOMException, IOException {
         this.bookPartXpath = bookPartXpath;
         this.plugin = plugin;
         // the bits-xml -files use doctype declaration and external general entities!
         if (xmlBitsFile != null && Files.exists(xmlBitsFile)) {
-            this.jdomDocument = jdomBuilder.build(xmlBitsFile.toString());
+            // compressed files are decompressed while they are parsed
+            try (BitsSource source = BitsSource.open(xmlBitsFile, entityResolver); InputStream in = source.openStream()) {
+                if (streamingParser != null) {
+                    this.jdomDocument = streamingParser.parse(in, source.getSystemId(), source);
+                } else {
+                    SAXBuilder jdomBuilder = new SAXBuilder();
+                    jdomBuilder.setEntityResolver(source.getEntityResolver());
+                    this.jdomDocument = jdomBuilder.build(in, source.getSystemId());
+                }
+            }
         }
     }
 
@@ -57,25 +104,26 @@ public class BitsXmlReader {
             List<PersonMapping> elementPersons,  XPathExpression<Object> fpageXpath,  XPathExpression<Object> lpageXpath) throws IllegalArgumentException {
         Book result = new Book();
         // read TopStruct Metadata
-        List<MetadataElement> bookMetadata = readMetada(publicationMetadata, jdomDocument);
-        List<ParsedPerson> bookPersons = readPersons(publicationPersons, jdomDocument);
-        result.setMetadata(new ParsedMetadata(bookPersons, bookMetadata));
+        NodeMapper publicationMapper = new NodeMapper(publicationMetadata, publicationPersons);
+        result.setMetadata(publicationMapper.readMetadata(publicationMapper.evaluate(jdomDocument)));
 
+        // all mappings of a book part are collected in one walk over the node
+        NodeMapper elementMapper = new NodeMapper(elementMetadata, elementPersons, fpageXpath, lpageXpath);
         XPathExpression<Object> bookPartXpathExpr = this.bookPartXpath;
         List<Object> bookPartNodeObjects = bookPartXpathExpr.evaluate(jdomDocument);
         int NoMappingPossibleCounter = 0;
-        for (Object bookPartNode : bookPartNodeObjects) {
-            List<MetadataElement> bookPartMetadataElements = readMetada(elementMetadata, bookPartNode);
-            List<ParsedPerson> bookPartPersons = readPersons(elementPersons, bookPartNode);
-            ParsedMetadata bookPartMetadata = new ParsedMetadata(bookPartPersons, bookPartMetadataElements);
-            String lpage = readFirstValue(lpageXpath, bookPartNode);
-            String fpage = readFirstValue(fpageXpath, bookPartNode);
-
-            //TODO add Error Message on failure!
-            if (StringUtils.isNotBlank(fpage) && StringUtils.isNotBlank(lpage)) {
-                result.addBookPart(new BookPart(bookPartMetadata, Integer.parseInt(fpage.trim()), Integer.parseInt(lpage.trim())));
-            } else {
-                NoMappingPossibleCounter++;
+        if (hierarchical) {
+            NoMappingPossibleCounter = readBookPartHierarchy(result, elementMapper, bookPartNodeObjects);
+        } else if (parallelism > 1 && bookPartNodeObjects.size() > CHUNK_SIZE) {
+            NoMappingPossibleCounter = readBookPartsParallel(result, elementMapper, bookPartNodeObjects);
+        } else {
+            for (Object bookPartNode : bookPartNodeObjects) {
+                BookPart bookPart = readBookPart(elementMapper, bookPartNode);
+                if (bookPart != null) {
+                    result.addBookPart(bookPart);
+                } else {
+                    NoMappingPossibleCounter++;
+                }
             }
         }
         if (NoMappingPossibleCounter > 0) {
@@ -84,37 +132,157 @@ public class BitsXmlReader {
         return result;
     }
 
-    private List<MetadataElement> readMetada(List<MetadataMapping> metadaMappings, Object source) {
-        List<MetadataElement> metadataElements = new ArrayList<>();
-        for (MetadataMapping metadataMapping : metadaMappings) {
-            XPathExpression<Object> XpathExpr = metadataMapping.getXpath();
-            List<Object> metadataObjects = XpathExpr.evaluate(source);
-            List<String> readValues = readValues(metadataObjects);
-            for (String readValue : readValues) {
-                metadataElements.add(new MetadataElement(metadataMapping.getMets(), readValue));
+    /**
+     * reads the book part of the given node
+     * 
+     * @return the book part or null if the node has no fpage or lpage
+     */
+    private BookPart readBookPart(NodeMapper elementMapper, Object bookPartNode) {
+        List<List<Object>> results = elementMapper.evaluate(bookPartNode);
+        String fpage = elementMapper.readAdditionalValue(results, 0);
+        String lpage = elementMapper.readAdditionalValue(results, 1);
+        if (progress != null) {
+            progress.checkCancelled();
+            progress.bookPartRead();
+        }
+        //TODO add Error Message on failure!
+        if (StringUtils.isBlank(fpage) || StringUtils.isBlank(lpage)) {
+            return null;
+        }
+        return new BookPart(elementMapper.readMetadata(results), Integer.parseInt(fpage.trim()), Integer.parseInt(lpage.trim()));
+    }
+
+    /**
+     * Reads the book parts of the nodes with up to {@link #parallelism} threads. The nodes are split into chunks, each thread uses its own copy of
+     * the compiled mappings. The book parts are added in the order of the nodes.
+     * 
+     * @return number of book parts without fpage or lpage
+     */
+    private int readBookPartsParallel(Book result, NodeMapper elementMapper, List<Object> bookPartNodes) {
+        BookPart[] bookParts = new BookPart[bookPartNodes.size()];
+        // compiled xpath expressions are not thread safe
+        ThreadLocal<NodeMapper> mappers = ThreadLocal.withInitial(elementMapper::copy);
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "bits-reader-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> chunks = new ArrayList<>();
+            for (int start = 0; start < bookPartNodes.size(); start += CHUNK_SIZE) {
+                int from = start;
+                int to = Math.min(start + CHUNK_SIZE, bookPartNodes.size());
+                chunks.add(executor.submit(() -> {
+                    NodeMapper mapper = mappers.get();
+                    for (int i = from; i < to; i++) {
+                        bookParts[i] = readBookPart(mapper, bookPartNodes.get(i));
+                    }
+                }));
+            }
+            for (Future<?> chunk : chunks) {
+                chunk.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Reading the book parts was interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        int noMappingPossible = 0;
+        for (BookPart bookPart : bookParts) {
+            if (bookPart == null) {
+                noMappingPossible++;
+            } else {
+                result.addBookPart(bookPart);
             }
         }
-        return metadataElements;
+        return noMappingPossible;
     }
 
-    private List<ParsedPerson> readPersons(List<PersonMapping> personMappings, Object source) {
-        List<ParsedPerson> persons = new ArrayList<>();
-        for (PersonMapping personMapping : personMappings) {
-            XPathExpression<Object> XpathExpr = personMapping.getXpathNode();
-            List<Object> personNodeObjects = XpathExpr.evaluate(source);
-            for (Object personNodeObject : personNodeObjects) {
-                XPathExpression<Object> firstnameXpathExpr = personMapping.getXpathFirstname();
-                String firstname = readFirstValue(personMapping.getXpathFirstname(), personNodeObject);
-                String lastname = readFirstValue(personMapping.getXpathLastname(), personNodeObject);
-                persons.add(new ParsedPerson(personMapping.getMets(), firstname, lastname));
+    /**
+     * Reads the selected book parts and all book parts nested in them in one depth first traversal. The selected nodes are the metadata elements
+     * of the book parts (e.g. book-part-meta), their parent element is the book part. A nested book part is a descendant element with the same
+     * name as the book part that contains a metadata element. Each element of the book parts is visited once.
+     * 
+     * @return number of book parts without fpage or lpage. Their nested book parts are added to the next higher book part
+     */
+    private int readBookPartHierarchy(Book result, NodeMapper elementMapper, List<Object> bookPartNodes) {
+        int noMappingPossible = 0;
+        Set<Element> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<PartFrame> stack = new ArrayDeque<>();
+        for (Object bookPartNode : bookPartNodes) {
+            if (!(bookPartNode instanceof Element)) {
+                continue;
+            }
+            stack.push(new PartFrame((Element) bookPartNode, null));
+            while (!stack.isEmpty()) {
+                PartFrame frame = stack.pop();
+                if (!visited.add(frame.meta)) {
+                    // selected by the xpath and found as nested book part
+                    continue;
+                }
+                BookPart bookPart = readBookPart(elementMapper, frame.meta);
+                if (bookPart == null) {
+                    noMappingPossible++;
+                } else if (frame.parent == null) {
+                    result.addBookPart(bookPart);
+                } else {
+                    frame.parent.addBookPart(bookPart);
+                }
+                BookPart parent = bookPart == null ? frame.parent : bookPart;
+                List<Element> nested = findNestedMetaElements(frame.meta);
+                // reverse order, so that the book parts are read in document order
+                for (int i = nested.size() - 1; i >= 0; i--) {
+                    stack.push(new PartFrame(nested.get(i), parent));
+                }
             }
         }
-        return persons;
+        return noMappingPossible;
     }
 
-    private String readFirstValue(XPathExpression<Object> xpathExpression, Object source) {
-        List<Object> Objects = xpathExpression.evaluate(source);
-        List<String> readValues = readValues(Objects);
+    /**
+     * @return the metadata elements of the book parts that are nested directly in the book part of the given metadata element
+     */
+    private static List<Element> findNestedMetaElements(Element meta) {
+        List<Element> nested = new ArrayList<>();
+        Element part = meta.getParentElement();
+        if (part == null) {
+            return nested;
+        }
+        Deque<Element> stack = new ArrayDeque<>();
+        pushChildren(stack, part, meta);
+        while (!stack.isEmpty()) {
+            Element element = stack.pop();
+            if (element.getName().equals(part.getName())) {
+                Element nestedMeta = element.getChild(meta.getName(), meta.getNamespace());
+                if (nestedMeta != null) {
+                    nested.add(nestedMeta);
+                    // the book parts nested in this one are read with its own metadata element
+                    continue;
+                }
+            }
+            pushChildren(stack, element, null);
+        }
+        return nested;
+    }
+
+    private static void pushChildren(Deque<Element> stack, Element element, Element skip) {
+        List<Element> children = element.getChildren();
+        for (int i = children.size() - 1; i >= 0; i--) {
+            if (children.get(i) != skip) {
+                stack.push(children.get(i));
+            }
+        }
+    }
+
+    private String readFirstValue(List<Object> objects) {
+        List<String> readValues = readValues(objects);
         if (readValues.size() >= 1) {
             return readValues.get(0);
         }
@@ -143,4 +311,86 @@ public class BitsXmlReader {
         }
         return readValues;
     }
+
+    /**
+     * Evaluates the metadata and person mappings and some additional expressions with one {@link MappingEngine}
+     */
+    private class NodeMapper {
+        private final List<MetadataMapping> metadataMappings;
+        private final List<PersonMapping> personMappings;
+        private final MappingEngine engine;
+        private final List<MappingEngine> personEngines = new ArrayList<>();
+
+        private final XPathExpression<Object>[] additionalExpressions;
+
+        @SafeVarargs
+        private NodeMapper(List<MetadataMapping> metadataMappings, List<PersonMapping> personMappings,
+                XPathExpression<Object>... additionalExpressions) {
+            this.metadataMappings = metadataMappings;
+            this.personMappings = personMappings;
+            this.additionalExpressions = additionalExpressions;
+            List<XPathExpression<Object>> expressions = new ArrayList<>();
+            for (MetadataMapping metadataMapping : metadataMappings) {
+                expressions.add(metadataMapping.getXpath());
+            }
+            for (PersonMapping personMapping : personMappings) {
+                expressions.add(personMapping.getXpathNode());
+                personEngines.add(new MappingEngine(Arrays.asList(personMapping.getXpathFirstname(), personMapping.getXpathLastname())));
+            }
+            expressions.addAll(Arrays.asList(additionalExpressions));
+            this.engine = new MappingEngine(expressions);
+        }
+
+        /**
+         * @return a mapper with copies of all compiled expressions, for the use in another thread
+         */
+        @SuppressWarnings("unchecked")
+        private NodeMapper copy() {
+            List<MetadataMapping> metadataCopies = new ArrayList<>();
+            for (MetadataMapping mapping : metadataMappings) {
+                metadataCopies.add(new MetadataMapping(mapping.getXpath().clone(), mapping.getMets()));
+            }
+            List<PersonMapping> personCopies = new ArrayList<>();
+            for (PersonMapping mapping : personMappings) {
+                personCopies.add(new PersonMapping(mapping.getXpathFirstname().clone(), mapping.getXpathLastname().clone(), mapping.getMets(),
+                        mapping.getXpathNode().clone()));
+            }
+            XPathExpression<Object>[] additionalCopies = new XPathExpression[additionalExpressions.length];
+            for (int i = 0; i < additionalExpressions.length; i++) {
+                additionalCopies[i] = additionalExpressions[i].clone();
+            }
+            return new NodeMapper(metadataCopies, personCopies, additionalCopies);
+        }
+
+        private List<List<Object>> evaluate(Object source) {
+            return engine.evaluate(source);
+        }
+
+        private ParsedMetadata readMetadata(List<List<Object>> results) {
+            List<MetadataElement> metadataElements = new ArrayList<>();
+            for (int i = 0; i < metadataMappings.size(); i++) {
+                for (String readValue : readValues(results.get(i))) {
+                    metadataElements.add(new MetadataElement(metadataMappings.get(i).getMets(), readValue));
+                }
+            }
+            List<ParsedPerson> persons = new ArrayList<>();
+            for (int i = 0; i < personMappings.size(); i++) {
+                for (Object personNodeObject : results.get(metadataMappings.size() + i)) {
+                    List<List<Object>> names = personEngines.get(i).evaluate(personNodeObject);
+                    persons.add(new ParsedPerson(personMappings.get(i).getMets(), readFirstValue(names.get(0)), readFirstValue(names.get(1))));
+                }
+            }
+            return ParsedMetadata.of(persons, metadataElements);
+        }
+
+        private String readAdditionalValue(List<List<Object>> results, int index) {
+            return readFirstValue(results.get(metadataMappings.size() + personMappings.size() + index));
+        }
+    }
+
+    @AllArgsConstructor
+    private static class PartFrame {
+        private Element meta;
+        private BookPart parent;
+    }
 }
@@ -0,0 +1,142 @@
+package de.intranda.goobi.plugins;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Runs the asynchronous conversions. Each conversion gets its own virtual thread if the java version supports them, otherwise the conversions
+ * run on a pool of daemon threads. In both cases at most one conversion per processor runs at the same time.
+ */
+@Log4j2
+public class ConversionExecutor {
+
+    private static final int MAX_PARALLEL = Runtime.getRuntime().availableProcessors();
+    private static final Semaphore PERMITS = new Semaphore(MAX_PARALLEL);
+    private static final Map<Integer, ConversionProgress> RUNNING = new ConcurrentHashMap<>();
+    private static ExecutorService executor;
+
+    private ConversionExecutor() {
+    }
+
+    /**
+     * queues the conversion of the process
+     *
+     * @param processId
+     * @param conversion conversion to run, it must update the given progress
+     * @return the progress of the queued conversion or null if a conversion of the process is already queued or running
+     */
+    public static ConversionProgress submit(int processId, Conversion conversion) {
+        ConversionProgress progress = claim(processId);
+        if (progress == null) {
+            return null;
+        }
+        getExecutor().execute(() -> {
+            try {
+                PERMITS.acquire();
+                try {
+                    conversion.run(progress);
+                } finally {
+                    PERMITS.release();
+                }
+            } catch (InterruptedException e) {
+                progress.setState(ConversionProgress.State.CANCELLED);
+                Thread.currentThread().interrupt();
+            } catch (CancellationException e) {
+                progress.setState(ConversionProgress.State.CANCELLED);
+            } catch (RuntimeException e) {
+                progress.setState(ConversionProgress.State.ERROR);
+                log.error("PdfBookInterchangeConvert: Error in asynchronous conversion! ProcessID:" + processId, e);
+            } finally {
+                release(progress);
+            }
+        });
+        return progress;
+    }
+
+    /**
+     * registers a conversion of the process that runs outside of the executor, e.g. in the batch conversion. Only one conversion per process
+     * can be registered at the same time
+     *
+     * @param processId
+     * @return the progress of the registered conversion or null if a conversion of the process is already queued or running
+     */
+    public static ConversionProgress claim(int processId) {
+        ConversionProgress progress = new ConversionProgress(processId);
+        return RUNNING.putIfAbsent(processId, progress) == null ? progress : null;
+    }
+
+    /**
+     * removes the finished conversion, the process can be converted again
+     *
+     * @param progress progress returned by {@link #claim(int)}
+     */
+    public static void release(ConversionProgress progress) {
+        RUNNING.remove(progress.getProcessId(), progress);
+    }
+
+    /**
+     * @return the progress of the queued or running conversion of the process or null
+     */
+    public static ConversionProgress getProgress(int processId) {
+        return RUNNING.get(processId);
+    }
+
+    /**
+     * @return the progress of all queued and running conversions
+     */
+    public static Map<Integer, ConversionProgress> getRunning() {
+        return RUNNING;
+    }
+
+    /**
+     * requests the cancellation of the conversion of the process
+     *
+     * @return true if a conversion was queued or running
+     */
+    public static boolean cancel(int processId) {
+        ConversionProgress progress = RUNNING.get(processId);
+        if (progress == null) {
+            return false;
+        }
+        progress.cancel();
+        return true;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = createExecutor();
+        }
+        return executor;
+    }
+
+    private static ExecutorService createExecutor() {
+        try {
+            // java 21 and later
+            Method virtualThreads = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtualThreads.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger counter = new AtomicInteger();
+            return Executors.newFixedThreadPool(MAX_PARALLEL, runnable -> {
+                Thread thread = new Thread(runnable, "pdf-book-interchange-convert-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * a conversion that reports its progress
+     */
+    @FunctionalInterface
+    public interface Conversion {
+        void run(ConversionProgress progress);
+    }
+}
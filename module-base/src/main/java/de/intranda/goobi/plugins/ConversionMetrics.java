@@ -0,0 +1,228 @@
+package de.intranda.goobi.plugins;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import de.intranda.goobi.plugins.model.Book;
+import de.intranda.goobi.plugins.model.BookPart;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Timers and counters of all conversions of this JVM. The values are exposed through JMX, so the throughput of the conversions can be watched
+ * with any JMX client.
+ */
+@Log4j2
+public class ConversionMetrics implements ConversionMetricsMXBean {
+
+    public static final String OBJECT_NAME = "de.intranda.goobi.plugins:type=PdfBookInterchangeConvert";
+
+    private static ConversionMetrics instance;
+
+    public enum Phase {
+        LIST_FILES,
+        READ_METADATA,
+        PARSE_BITS,
+        MAP_TO_METS,
+        WRITE_METADATA
+    }
+
+    private final Map<Phase, PhaseTimer> timers = new EnumMap<>(Phase.class);
+    private final LongAdder conversions = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesParsed = new LongAdder();
+    private final LongAdder bookPartsRead = new LongAdder();
+    private final LongAdder partsMatched = new LongAdder();
+    private final LongAdder partsCreated = new LongAdder();
+    private final LongAdder pagesLinked = new LongAdder();
+    private final LongAdder pagesCreated = new LongAdder();
+
+    private ConversionMetrics() {
+        for (Phase phase : Phase.values()) {
+            timers.put(phase, new PhaseTimer());
+        }
+    }
+
+    /**
+     * @return the metrics of this JVM, registered at the platform MBean server on first use
+     */
+    public static synchronized ConversionMetrics getInstance() {
+        if (instance == null) {
+            instance = new ConversionMetrics();
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                // a previous version of the plugin may still be registered
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(instance, name);
+            } catch (JMException | SecurityException e) {
+                log.warn("PdfBookInterchangeConvert: Could not register the metrics MBean", e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * adds the time since the given start to the phase
+     *
+     * @param phase
+     * @param start start of the phase from {@link System#nanoTime()}
+     * @return the current {@link System#nanoTime()}, i.e. the start of the next phase
+     */
+    public long record(Phase phase, long start) {
+        long now = System.nanoTime();
+        timers.get(phase).add(now - start);
+        return now;
+    }
+
+    public void countConversion() {
+        conversions.increment();
+    }
+
+    public void countError() {
+        errors.increment();
+    }
+
+    public void countBytesParsed(long bytes) {
+        bytesParsed.add(bytes);
+    }
+
+    /**
+     * counts all book parts of the book, including the nested ones
+     */
+    public void countBookParts(Book book) {
+        Deque<BookPart> stack = new ArrayDeque<>(book.getBookParts());
+        long count = 0;
+        while (!stack.isEmpty()) {
+            count++;
+            stack.addAll(stack.pop().getBookParts());
+        }
+        bookPartsRead.add(count);
+    }
+
+    /**
+     * adds the counters of a finished mapping
+     */
+    public void countMapping(DocumentManager manager) {
+        partsMatched.add(manager.getPartsMatched());
+        partsCreated.add(manager.getPartsCreated());
+        pagesLinked.add(manager.getPagesLinked());
+        pagesCreated.add(manager.getPagesCreated());
+    }
+
+    @Override
+    public long getConversions() {
+        return conversions.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getBytesParsed() {
+        return bytesParsed.sum();
+    }
+
+    @Override
+    public long getBookPartsRead() {
+        return bookPartsRead.sum();
+    }
+
+    @Override
+    public long getPartsMatched() {
+        return partsMatched.sum();
+    }
+
+    @Override
+    public long getPartsCreated() {
+        return partsCreated.sum();
+    }
+
+    @Override
+    public long getPagesLinked() {
+        return pagesLinked.sum();
+    }
+
+    @Override
+    public long getPagesCreated() {
+        return pagesCreated.sum();
+    }
+
+    @Override
+    public Map<String, Long> getPhaseTotalMillis() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        timers.forEach((phase, timer) -> result.put(phase.name(), TimeUnit.NANOSECONDS.toMillis(timer.total.sum())));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseMaxMillis() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        timers.forEach((phase, timer) -> result.put(phase.name(), TimeUnit.NANOSECONDS.toMillis(timer.max.get())));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseCount() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        timers.forEach((phase, timer) -> result.put(phase.name(), timer.count.sum()));
+        return result;
+    }
+
+    @Override
+    public double getParseThroughput() {
+        long nanos = timers.get(Phase.PARSE_BITS).total.sum();
+        return nanos == 0 ? 0 : bytesParsed.sum() * 1e9 / nanos;
+    }
+
+    @Override
+    public Map<String, String> getRunningConversions() {
+        Map<String, String> result = new LinkedHashMap<>();
+        ConversionExecutor.getRunning().forEach((processId, progress) -> result.put(String.valueOf(processId), progress.toString()));
+        return result;
+    }
+
+    @Override
+    public boolean cancelConversion(int processId) {
+        return ConversionExecutor.cancel(processId);
+    }
+
+    @Override
+    public void reset() {
+        for (PhaseTimer timer : timers.values()) {
+            timer.count.reset();
+            timer.total.reset();
+            timer.max.reset();
+        }
+        for (LongAdder counter : new LongAdder[] { conversions, errors, bytesParsed, bookPartsRead, partsMatched, partsCreated, pagesLinked,
+                pagesCreated }) {
+            counter.reset();
+        }
+    }
+
+    private static class PhaseTimer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private void add(long nanos) {
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+    }
+}
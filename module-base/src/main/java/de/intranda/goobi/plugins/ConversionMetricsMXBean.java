@@ -0,0 +1,59 @@
+package de.intranda.goobi.plugins;
+
+import java.util.Map;
+
+/**
+ * Management interface of the {@link ConversionMetrics}, registered as de.intranda.goobi.plugins:type=PdfBookInterchangeConvert
+ */
+public interface ConversionMetricsMXBean {
+
+    long getConversions();
+
+    long getErrors();
+
+    long getBytesParsed();
+
+    long getBookPartsRead();
+
+    long getPartsMatched();
+
+    long getPartsCreated();
+
+    long getPagesLinked();
+
+    long getPagesCreated();
+
+    /**
+     * @return summed up duration of each phase in milliseconds
+     */
+    Map<String, Long> getPhaseTotalMillis();
+
+    /**
+     * @return longest duration of each phase in milliseconds
+     */
+    Map<String, Long> getPhaseMaxMillis();
+
+    /**
+     * @return number of executions of each phase
+     */
+    Map<String, Long> getPhaseCount();
+
+    /**
+     * @return bytes of BITS files parsed per second of parsing
+     */
+    double getParseThroughput();
+
+    /**
+     * @return the progress of all queued and running asynchronous conversions by process id
+     */
+    Map<String, String> getRunningConversions();
+
+    /**
+     * requests the cancellation of the asynchronous conversion of the process
+     *
+     * @return true if a conversion of the process was queued or running
+     */
+    boolean cancelConversion(int processId);
+
+    void reset();
+}
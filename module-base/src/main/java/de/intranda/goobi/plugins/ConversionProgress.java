@@ -0,0 +1,96 @@
+package de.intranda.goobi.plugins;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Progress of one conversion. It is updated by the conversion thread and can be read and cancelled from any other thread.
+ */
+public class ConversionProgress {
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        FINISHED,
+        ERROR,
+        CANCELLED
+    }
+
+    @Getter
+    private final int processId;
+    @Getter
+    @Setter
+    private volatile State state = State.QUEUED;
+    @Getter
+    @Setter
+    private volatile ConversionMetrics.Phase phase;
+    @Getter
+    @Setter
+    private volatile int bookPartsTotal;
+    private final AtomicInteger bookPartsRead = new AtomicInteger();
+    private final AtomicInteger bookPartsMapped = new AtomicInteger();
+    private final AtomicInteger pagesLinked = new AtomicInteger();
+    private volatile boolean cancelled = false;
+
+    public ConversionProgress(int processId) {
+        this.processId = processId;
+    }
+
+    public void bookPartRead() {
+        bookPartsRead.incrementAndGet();
+    }
+
+    public void bookPartMapped() {
+        bookPartsMapped.incrementAndGet();
+    }
+
+    public void pageLinked() {
+        pagesLinked.incrementAndGet();
+    }
+
+    public int getBookPartsRead() {
+        return bookPartsRead.get();
+    }
+
+    public int getBookPartsMapped() {
+        return bookPartsMapped.get();
+    }
+
+    public int getPagesLinked() {
+        return pagesLinked.get();
+    }
+
+    /**
+     * requests the cancellation, the conversion stops at the next check
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @throws CancellationException if the cancellation was requested
+     */
+    public void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("The conversion of process " + processId + " was cancelled");
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(state.name());
+        if (phase != null && state == State.RUNNING) {
+            sb.append(' ').append(phase.name());
+        }
+        sb.append(": ").append(getBookPartsRead()).append(" book parts read, ").append(getBookPartsMapped()).append(" of ").append(bookPartsTotal)
+                .append(" mapped, ").append(getPagesLinked()).append(" pages linked");
+        return sb.toString();
+    }
+}
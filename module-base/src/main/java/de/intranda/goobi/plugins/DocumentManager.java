@@ -5,19 +5,25 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
 
 import org.goobi.production.enums.LogType;
 
 import de.intranda.goobi.plugins.model.Book;
 import de.intranda.goobi.plugins.model.BookPart;
+import de.intranda.goobi.plugins.model.FieldNames;
 import de.intranda.goobi.plugins.model.MetadataElement;
 import de.intranda.goobi.plugins.model.ParsedMetadata;
 import de.intranda.goobi.plugins.model.ParsedPerson;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 import ugh.dl.ContentFile;
 import ugh.dl.DigitalDocument;
 import ugh.dl.DocStruct;
@@ -28,6 +34,7 @@ import ugh.dl.MetadataType;
 import ugh.dl.Person;
 import ugh.dl.Prefs;
 import ugh.dl.Reference;
+import ugh.exceptions.IncompletePersonObjectException;
 import ugh.exceptions.MetadataTypeNotAllowedException;
 import ugh.exceptions.PreferencesException;
 import ugh.exceptions.TypeNotAllowedAsChildException;
@@ -41,240 +48,820 @@ public class DocumentManager {
     private Prefs prefs;
     private DocStructType bitsChildType;
     private DocStructType pdfChildType;
-    private List<String> overrideMetadaTypes = new ArrayList<String>(Arrays.asList("TitleDocMain"));
+    private Set<String> overrideMetadaTypes = new HashSet<String>(Arrays.asList("TitleDocMain"));
     private List<Path> imageFiles;
     private PdfBookInterchangeConvertStepPlugin plugin;
-    private HashMap<Integer, List<DocstructPageMapping>> pageMapping = new HashMap<Integer, List<DocstructPageMapping>>();
+    private List<DocstructPageMapping> pageMapping = new ArrayList<DocstructPageMapping>();
+    private PageRangeIndex pageIndex;
+    private PhysicalPageTable pageTable;
+    private DocStructType pageType;
+    private MetadataType physPageNumberType;
+    private MetadataType logicalPageNumberType;
+    // structure elements that were matched by a tolerant page range search
+    private Set<DocStruct> matchedElements = Collections.newSetFromMap(new IdentityHashMap<>());
+    // counters of this mapping
+    @Getter
+    private int partsMatched = 0;
+    @Getter
+    private int partsCreated = 0;
+    @Getter
+    private int pagesLinked = 0;
+    @Getter
+    private int pagesCreated = 0;
+    @Getter
+    private int partsUnchanged = 0;
+    // progress of an asynchronous execution, may be null
+    @Setter
+    private ConversionProgress progress;
+    // checksum of the BITS file and the configuration, stored in the logical element to recognize a repeated execution
+    private MetadataType checksumType;
+    private String checksum;
+    // metadata and person types written by the publication and the element mapping
+    private Set<String> publicationTypes = Collections.emptySet();
+    private Set<String> elementTypes = Collections.emptySet();
+    // metadata types of the mappings resolved against the ruleset, for the publication and for the created elements
+    private TargetTypes publicationTargets;
+    private TargetTypes elementTargets;
+    // structure types that may contain elements of structureTypeBits, checked once per parent type
+    private Map<String, Boolean> childAllowed = new HashMap<>();
+    // added to the page numbers of the book parts, e.g. for a volume whose pages follow the pages of the previous volumes
+    @Setter
+    @Getter
+    private int pageOffset = 0;
+    // if true, the offset between the printed page numbers of the book parts and the physical pages is detected
+    @Setter
+    private boolean pageOffsetDetection = false;
+    // book parts whose pages are outside of the physical pages of the document
+    private Set<BookPart> invalidPages = Collections.newSetFromMap(new IdentityHashMap<>());
+    private int pageCount;
+    // number of elements of a similar rank that are compared with a book part for the detection of the page offset
+    private static final int OFFSET_WINDOW = 2;
+    // number of the most frequent offsets that are checked
+    private static final int OFFSET_CANDIDATES = 3;
+    @Setter
+    private int pageMatchingTolerance = 0;
+    @Setter
+    private PageRangeIndex.MatchMode pageMatchingMode = PageRangeIndex.MatchMode.EXACT;
+    // book parts without matching pages are matched by this title type if it is not null
+    private MetadataType titleType;
+    private double titleMatchingThreshold;
+    // elements matched to the book parts by their pages or their title
+    private Map<BookPart, DocstructPageMapping> matches = new IdentityHashMap<>();
 
+    /**
+     * @param imageFiles image files in the order of the pages, the first file belongs to page 1. They need not exist yet
+     */
     public DocumentManager(Fileformat fileformat, String bitsChildType, String pdfChildType, List<Path> imageFiles, Prefs prefs,
             PdfBookInterchangeConvertStepPlugin plugin) throws PreferencesException {
+        this(fileformat, fileformat.getDigitalDocument().getLogicalDocStruct(), bitsChildType, pdfChildType, imageFiles, prefs, plugin);
+    }
+
+    /**
+     * @param target logical element the book is mapped to, e.g. a volume of a multi-volume work
+     * @param imageFiles image files in the order of the pages, the first file belongs to page 1. They need not exist yet
+     */
+    public DocumentManager(Fileformat fileformat, DocStruct target, String bitsChildType, String pdfChildType, List<Path> imageFiles, Prefs prefs,
+            PdfBookInterchangeConvertStepPlugin plugin) throws PreferencesException {
         this.plugin = plugin;
         this.imageFiles = imageFiles;
-        Collections.sort(this.imageFiles);
 
         this.fileformat = fileformat;
         this.prefs = prefs;
         this.bitsChildType = this.prefs.getDocStrctTypeByName(bitsChildType);
         this.pdfChildType = this.prefs.getDocStrctTypeByName(pdfChildType);
         this.digitalDocument = this.fileformat.getDigitalDocument();
-        this.logical = this.digitalDocument.getLogicalDocStruct();
+        this.logical = target;
         this.physical = this.digitalDocument.getPhysicalDocStruct();
+        this.pageType = this.prefs.getDocStrctTypeByName("page");
+        this.physPageNumberType = this.prefs.getMetadataTypeByName("physPageNumber");
+        this.logicalPageNumberType = this.prefs.getMetadataTypeByName("logicalPageNumber");
+        this.pageTable = new PhysicalPageTable(this.physical, this.physPageNumberType, this.imageFiles);
+    }
+
+    /**
+     * sets the checksum of the current BITS file and configuration
+     * 
+     * @param checksumType metadata type of the checksum
+     * @param checksum
+     */
+    public void setChecksum(MetadataType checksumType, String checksum) {
+        this.checksumType = checksumType;
+        this.checksum = checksum;
+    }
+
+    /**
+     * enables the matching of book parts by their title, if no element with matching pages was found
+     * 
+     * @param field metadata type of the titles of the book parts and the elements
+     * @param threshold minimum similarity between 0 and 1
+     */
+    public void setTitleMatching(String field, double threshold) {
+        this.titleType = prefs.getMetadataTypeByName(field);
+        this.titleMatchingThreshold = threshold;
+        if (titleType == null) {
+            plugin.log("The metadata type '" + field + "' of the titleMatching is not defined in the ruleset. Book parts are only matched by their pages.",
+                    LogType.ERROR, false);
+        }
+    }
+
+    /**
+     * @return the lowest physical page number linked to the target element or -1 if it has no pages
+     */
+    public int getFirstLinkedPage() {
+        int firstPage = -1;
+        for (Reference ref : logical.getAllToReferences("logical_physical")) {
+            int pageNumber = pageTable.getPageNumber(ref.getTarget());
+            if (pageNumber > 0 && (firstPage < 0 || pageNumber < firstPage)) {
+                firstPage = pageNumber;
+            }
+        }
+        return firstPage;
+    }
 
+    /**
+     * @return true if the document was already mapped with the same BITS file and configuration
+     */
+    public boolean isUnchanged() {
+        return checksum != null && checksum.equals(readChecksum());
+    }
+
+    /**
+     * sets the metadata and person types of the mappings. If the document was mapped before, the values of these types are replaced instead of
+     * added again
+     */
+    public void setMappedTypes(Set<String> publicationTypes, Set<String> elementTypes) {
+        this.publicationTypes = publicationTypes;
+        this.elementTypes = elementTypes;
     }
 
     public Fileformat mapBookToMets(Book book) {
-        addMetadata(logical, book.getMetadata(), true);
-        List<DocStruct> children = logical.getAllChildrenByTypeAndMetadataType(pdfChildType.getName(), "*");
-        populatePageMapping(children, null);
-        if (children == null || pageMapping.isEmpty()) {
+        if (bitsChildType == null || pdfChildType == null) {
+            plugin.log("The structure types of the configuration are not defined in the ruleset. Please update the ruleset or the configuration file.",
+                    LogType.ERROR, false);
+            return this.fileformat;
+        }
+        resolveTargetTypes();
+        if (readChecksum() != null) {
+            // mapped by a previous execution
+            updateMetadata(logical, book.getMetadata(), publicationTypes, publicationTargets);
+        } else {
+            addMetadata(logical, book.getMetadata(), true, publicationTargets);
+        }
+        // elements mapped by a previous execution are matched as well
+        List<DocStruct> children = getMappableChildren(logical);
+        populatePageMapping(children);
+        this.pageIndex = new PageRangeIndex(pageMapping);
+        // the pages are checked before any element is created
+        List<BookPart> bookParts = new ArrayList<>();
+        collectBookParts(book.getBookParts(), bookParts);
+        if (pageOffsetDetection) {
+            detectPageOffset(bookParts);
+        }
+        validatePages(bookParts);
+        if (children.isEmpty() || pageIndex.isEmpty()) {
             plugin.log("No element with physical pages detected", LogType.INFO, false);
             createElementsAddMetadata(logical, book.getBookParts(), true);
         } else {
+            List<BookPart> unmatched = new ArrayList<>();
+            matchByPages(book.getBookParts(), unmatched);
+            matchByTitles(unmatched);
             MapToOrCreateElement(logical, book.getBookParts());
         }
+        writeChecksum();
         return this.fileformat;
     }
 
-    private void populatePageMapping(List<DocStruct> children, HashMap<Integer, List<DocstructPageMapping>> PageMapping) {
+    /**
+     * resolves the configured metadata and person types against the ruleset. Types that are not defined or not allowed for the publication or
+     * the created elements are reported once and skipped during the mapping
+     */
+    private void resolveTargetTypes() {
+        publicationTargets = new TargetTypes(logical.getType());
+        elementTargets = new TargetTypes(bitsChildType);
+        for (String name : publicationTypes) {
+            publicationTargets.get(FieldNames.getId(name));
+        }
+        for (String name : elementTypes) {
+            elementTargets.get(FieldNames.getId(name));
+        }
+        isChildAllowed(logical.getType());
+    }
+
+    /**
+     * @return true if elements of structureTypeBits may be added to elements of the given type, reported once per type otherwise
+     */
+    private boolean isChildAllowed(DocStructType parentType) {
+        Boolean allowed = childAllowed.get(parentType.getName());
+        if (allowed == null) {
+            List<String> allowedTypes = parentType.getAllAllowedDocStructTypes();
+            allowed = allowedTypes != null && allowedTypes.contains(bitsChildType.getName());
+            if (!allowed) {
+                plugin.log("The structure type '" + bitsChildType.getName() + "' is not allowed in '" + parentType.getName()
+                        + "'. Couldn't create structure elements. Please update the ruleset.", LogType.ERROR, false);
+            }
+            childAllowed.put(parentType.getName(), allowed);
+        }
+        return allowed;
+    }
+
+    private static void collectBookParts(List<BookPart> bookParts, List<BookPart> result) {
+        for (BookPart bookPart : bookParts) {
+            result.add(bookPart);
+            collectBookParts(bookPart.getBookParts(), result);
+        }
+    }
+
+    private void detectPageOffset(List<BookPart> bookParts) {
+        List<Integer> bookPartStarts = new ArrayList<>(bookParts.size());
+        for (BookPart bookPart : bookParts) {
+            bookPartStarts.add(bookPart.getFirstPage());
+        }
+        List<Integer> elementStarts = new ArrayList<>(pageMapping.size());
+        for (DocstructPageMapping range : pageMapping) {
+            elementStarts.add(range.getFirstPage());
+        }
+        pageOffset = detectPageOffset(bookPartStarts, elementStarts, pageOffset, plugin);
+    }
+
+    /**
+     * detects the offset between the printed page numbers of the book parts and the physical pages of the existing elements, e.g. caused by
+     * front matter. Each book part is compared with the few elements of about the same rank, the differences of their first pages are counted
+     * in a histogram. The most frequent offsets replace the current offset if more book parts start at the first page of an element with them.
+     * A detected offset is always reported. If two offsets are equally good, the current offset is kept and the ambiguity is reported
+     *
+     * @param bookPartStarts printed first pages of the book parts in document order
+     * @param elementStarts first physical pages of the existing elements in document order
+     * @param offset current offset
+     * @param plugin receives the messages for the process log
+     * @return the offset to use for the book parts
+     */
+    static int detectPageOffset(List<Integer> bookPartStarts, List<Integer> elementStarts, int offset, PdfBookInterchangeConvertStepPlugin plugin) {
+        if (bookPartStarts.isEmpty() || elementStarts.isEmpty()) {
+            return offset;
+        }
+        Map<Integer, Integer> histogram = new HashMap<>();
+        Set<Integer> firstPages = new HashSet<>(elementStarts);
+        int parts = bookPartStarts.size();
+        int ranges = elementStarts.size();
+        for (int i = 0; i < parts; i++) {
+            int rank = (int) ((long) i * ranges / parts);
+            int firstPage = bookPartStarts.get(i);
+            for (int j = Math.max(0, rank - OFFSET_WINDOW); j <= Math.min(ranges - 1, rank + OFFSET_WINDOW); j++) {
+                histogram.merge(elementStarts.get(j) - firstPage, 1, Integer::sum);
+            }
+        }
+        List<Map.Entry<Integer, Integer>> candidates = new ArrayList<>(histogram.entrySet());
+        // the order of offsets with the same frequency must not depend on the hash map
+        candidates.sort(Map.Entry.<Integer, Integer> comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+
+        int bestOffset = offset;
+        int bestMatches = countStartMatches(bookPartStarts, firstPages, offset);
+        Integer tiedOffset = null;
+        for (Map.Entry<Integer, Integer> candidate : candidates.subList(0, Math.min(OFFSET_CANDIDATES, candidates.size()))) {
+            int candidateOffset = candidate.getKey();
+            if (candidateOffset == offset) {
+                continue;
+            }
+            int matches = countStartMatches(bookPartStarts, firstPages, candidateOffset);
+            if (matches > bestMatches) {
+                bestOffset = candidateOffset;
+                bestMatches = matches;
+                tiedOffset = null;
+            } else if (matches == bestMatches && bestOffset != offset) {
+                tiedOffset = candidateOffset;
+            }
+        }
+        if (tiedOffset != null) {
+            plugin.log("The page offset between the printed and the physical page numbers is ambiguous. The offsets " + bestOffset + " and "
+                    + tiedOffset + " both let " + bestMatches + " of " + parts + " book parts start at the first page of an existing element. The offset "
+                    + offset + " was kept.", LogType.WARN, false);
+            return offset;
+        }
+        if (bestOffset != offset) {
+            plugin.log("A page offset of " + bestOffset + " between the printed and the physical page numbers was detected. " + bestMatches + " of "
+                    + parts + " book parts start at the first page of an existing element.", LogType.INFO, false);
+        }
+        return bestOffset;
+    }
+
+    private static int countStartMatches(List<Integer> bookPartStarts, Set<Integer> firstPages, int offset) {
+        int matches = 0;
+        for (int firstPage : bookPartStarts) {
+            if (firstPages.contains(firstPage + offset)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * checks the pages of the book parts against the physical pages of the document. Book parts outside of the document are not added, pages
+     * after the last page of the document are ignored
+     */
+    private void validatePages(List<BookPart> bookParts) {
+        pageCount = pageTable.getPageCount();
+        for (BookPart bookPart : bookParts) {
+            int firstPage = bookPart.getFirstPage() + pageOffset;
+            int lastPage = bookPart.getLastPage() + pageOffset;
+            if (firstPage < 1 || lastPage < firstPage || firstPage > pageCount) {
+                invalidPages.add(bookPart);
+                plugin.log("book parts with pages outside of the document were not added.",
+                        "The element with start page '" + bookPart.getFirstPage() + "' and last page '" + bookPart.getLastPage()
+                                + "' is outside of the " + pageCount + " pages of the document.",
+                        LogType.ERROR);
+            } else if (lastPage > pageCount) {
+                plugin.log("pages of book parts after the last page of the document were ignored.",
+                        "The last page '" + bookPart.getLastPage() + "' of the element with start page '" + bookPart.getFirstPage()
+                                + "' is after the last page of the document.",
+                        LogType.INFO);
+            }
+        }
+    }
+
+    /**
+     * @return the children that were created from the pdf or by a previous execution
+     */
+    private List<DocStruct> getMappableChildren(DocStruct ds) {
+        List<DocStruct> children = new ArrayList<>();
+        if (ds.getAllChildren() != null) {
+            for (DocStruct child : ds.getAllChildren()) {
+                String type = child.getType().getName();
+                if (type.equals(pdfChildType.getName()) || type.equals(bitsChildType.getName())) {
+                    children.add(child);
+                }
+            }
+        }
+        return children;
+    }
+
+    private String readChecksum() {
+        if (checksumType == null) {
+            return null;
+        }
+        List<? extends Metadata> values = logical.getAllMetadataByType(checksumType);
+        return values == null || values.isEmpty() ? null : values.get(0).getValue();
+    }
+
+    private void writeChecksum() {
+        if (checksumType == null || checksum == null) {
+            return;
+        }
+        List<? extends Metadata> values = logical.getAllMetadataByType(checksumType);
+        if (values != null) {
+            for (Metadata md : new ArrayList<>(values)) {
+                logical.removeMetadata(md);
+            }
+        }
+        try {
+            Metadata md = new Metadata(checksumType);
+            md.setValue(checksum);
+            logical.addMetadata(md);
+        } catch (MetadataTypeNotAllowedException e) {
+            plugin.log("Could not add the checksum of type '" + checksumType.getName()
+                    + "' to the publication. Repeated executions will convert the XML-File again. Please update the ruleset.", LogType.ERROR, false);
+        }
+    }
+
+    private void populatePageMapping(List<DocStruct> children) {
         if (children == null) {
             return;
         }
         for (DocStruct child : children) {
-            List<Reference> refs = child.getAllToReferences("logical_physical");
-            List<Integer> pageNumbers = new ArrayList<Integer>();
-            for (Reference ref : refs) {
-                DocStruct dspage = ref.getTarget();
-                List<? extends Metadata> physPage = dspage.getAllMetadataByType(this.prefs.getMetadataTypeByName("physPageNumber"));
-                List<Integer> pages = physPage.stream().map(metadata -> Integer.parseInt(metadata.getValue())).collect(Collectors.toList());
-                pageNumbers.addAll(pages);
-            }
-            if (pageNumbers.isEmpty()) {
-                continue;
+            int firstPage = Integer.MAX_VALUE;
+            int lastPage = Integer.MIN_VALUE;
+            for (Reference ref : child.getAllToReferences("logical_physical")) {
+                int pageNumber = pageTable.getPageNumber(ref.getTarget());
+                if (pageNumber > 0) {
+                    firstPage = Math.min(firstPage, pageNumber);
+                    lastPage = Math.max(lastPage, pageNumber);
+                }
             }
-            Collections.sort(pageNumbers);
-            DocstructPageMapping dspageMapping = new DocstructPageMapping(child, pageNumbers.get(0), pageNumbers.get(pageNumbers.size() - 1));
-            List<DocstructPageMapping> dspageMappings = pageMapping.get(pageNumbers.get(0));
-            if (dspageMappings == null) {
-                dspageMappings = new ArrayList<DocstructPageMapping>();
-                pageMapping.put(pageNumbers.get(0), dspageMappings);
+            if (firstPage > lastPage) {
+                continue;
             }
-            dspageMappings.add(dspageMapping);
-            List<DocStruct> grandChildren = child.getAllChildrenByTypeAndMetadataType(this.pdfChildType.getName(), "*");
-            populatePageMapping(grandChildren, PageMapping);
+            pageMapping.add(new DocstructPageMapping(child, firstPage, lastPage));
+            populatePageMapping(getMappableChildren(child));
         }
     }
 
     private void createElementsAddMetadata(DocStruct ds, List<BookPart> bookParts, boolean rekursive) {
         for (BookPart bookPart : bookParts) {
-            DocStruct child = null;
-            try {
-                child = this.digitalDocument.createDocStruct(this.bitsChildType);
-                addMetadata(child, bookPart.getMetadata(), false);
-                linkImageFiles(child, bookPart.getFirstPage(), bookPart.getLastPage());
-                ds.addChild(child);
-            } catch (TypeNotAllowedForParentException ex) {
-                plugin.log("Type not allowed for parent. Couldn't create structure element. Please update the ruleset.", LogType.ERROR, false);
-                continue;
-            } catch (TypeNotAllowedAsChildException e) {
-                plugin.log("Type not allowed as child. Couldn't add created structure element to parent element. Please update the ruleset.",
-                        LogType.ERROR,
-                        false);
-                continue;
-            }
+            checkCancelled();
+            DocStruct child = createElement(ds, bookPart);
             if (rekursive && bookPart.getBookParts().size() > 0) {
-                createElementsAddMetadata(child, bookPart.getBookParts(), true);
+                // the nested book parts of an element that could not be created are added to its parent
+                createElementsAddMetadata(child == null ? ds : child, bookPart.getBookParts(), true);
             }
         }
     }
 
-    private void MapToOrCreateElement(DocStruct parent, List<BookPart> bookParts) {
+    /**
+     * creates a structure element for the book part, adds its metadata and pages and adds it to the parent element
+     * 
+     * @return the created element or null if it could not be created
+     */
+    private DocStruct createElement(DocStruct parent, BookPart bookPart) {
+        if (invalidPages.contains(bookPart) || !isChildAllowed(parent.getType())) {
+            return null;
+        }
+        try {
+            DocStruct child = this.digitalDocument.createDocStruct(this.bitsChildType);
+            addMetadata(child, bookPart.getMetadata(), false, elementTargets);
+            linkImageFiles(child, bookPart.getFirstPage() + pageOffset, Math.min(bookPart.getLastPage() + pageOffset, pageCount));
+            parent.addChild(child);
+            partsCreated++;
+            if (progress != null) {
+                progress.bookPartMapped();
+            }
+            return child;
+        } catch (TypeNotAllowedForParentException ex) {
+            plugin.log("Type not allowed for parent. Couldn't create structure element. Please update the ruleset.", LogType.ERROR, false);
+        } catch (TypeNotAllowedAsChildException e) {
+            plugin.log("Type not allowed as child. Couldn't add created structure element to parent element. Please update the ruleset.",
+                    LogType.ERROR,
+                    false);
+        }
+        return null;
+    }
+
+    /**
+     * searches the elements with matching pages for the book parts and their nested book parts
+     * 
+     * @param unmatched receives the book parts without matching element
+     */
+    private void matchByPages(List<BookPart> bookParts, List<BookPart> unmatched) {
         for (BookPart bookPart : bookParts) {
-            List<DocstructPageMapping> dsWithSameStartpage = pageMapping.get(bookPart.getFirstPage());
-            DocStruct ds = null;
-            if (dsWithSameStartpage != null) {
-                Optional<DocstructPageMapping> match =
-                        dsWithSameStartpage.stream().filter(dspMapping -> dspMapping.getLastPage() == bookPart.getLastPage()).findFirst();
-                if (match.isPresent()) {
-                    ds = match.get().getDs();
+            checkCancelled();
+            if (invalidPages.contains(bookPart)) {
+                matchByPages(bookPart.getBookParts(), unmatched);
+                continue;
+            }
+            DocstructPageMapping match = findMatchingElement(bookPart.getFirstPage() + pageOffset, bookPart.getLastPage() + pageOffset);
+            if (match == null) {
+                unmatched.add(bookPart);
+            } else {
+                matches.put(bookPart, match);
+            }
+            matchByPages(bookPart.getBookParts(), unmatched);
+        }
+    }
+
+    /**
+     * matches the book parts without matching pages to the remaining elements with the most similar title
+     */
+    private void matchByTitles(List<BookPart> unmatched) {
+        if (titleType == null || unmatched.isEmpty()) {
+            return;
+        }
+        Set<DocStruct> matchedByPages = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (DocstructPageMapping match : matches.values()) {
+            matchedByPages.add(match.getDs());
+        }
+        TitleIndex index = new TitleIndex(titleMatchingThreshold);
+        for (DocstructPageMapping range : pageMapping) {
+            if (!matchedByPages.contains(range.getDs())) {
+                List<? extends Metadata> titles = range.getDs().getAllMetadataByType(titleType);
+                if (titles != null && !titles.isEmpty()) {
+                    index.add(titles.get(0).getValue(), range);
+                }
+            }
+        }
+        if (index.isEmpty()) {
+            return;
+        }
+        int titleId = FieldNames.getId(titleType.getName());
+        for (BookPart bookPart : unmatched) {
+            checkCancelled();
+            String title = null;
+            for (MetadataElement element : bookPart.getMetadata().getMetadata()) {
+                if (element.getMetsId() == titleId) {
+                    title = element.getValue();
+                    break;
                 }
             }
-            if (ds == null) {
-                plugin.log("Could not find matching structure element for element with start page '" + bookPart.getFirstPage() + "' and last page '"
-                        + bookPart.getLastPage() + "'. New element will be added to structure element.", LogType.INFO, false);
-                ArrayList<BookPart> unmatchedBookPart = new ArrayList<BookPart>();
-                unmatchedBookPart.add(bookPart);
-                createElementsAddMetadata(parent, unmatchedBookPart, false);
+            DocstructPageMapping match = index.findBest(title, bookPart.getFirstPage() + pageOffset);
+            if (match != null) {
+                matches.put(bookPart, match);
+                matchedElements.add(match.getDs());
+                plugin.log("elements without matching pages were matched by their title.",
+                        "The element '" + title + "' with start page '" + bookPart.getFirstPage() + "' was matched by its title to the element with pages "
+                                + match.getFirstPage() + " to " + match.getLastPage() + ".",
+                        LogType.INFO);
+            }
+        }
+    }
 
+    private void MapToOrCreateElement(DocStruct parent, List<BookPart> bookParts) {
+        for (BookPart bookPart : bookParts) {
+            checkCancelled();
+            DocstructPageMapping match = matches.get(bookPart);
+            DocStruct ds = match == null ? null : match.getDs();
+            if (invalidPages.contains(bookPart)) {
+                // reported by validatePages
+            } else if (ds == null) {
+                plugin.log("elements without matching structure element were added as new structure elements.",
+                        "Could not find matching structure element for element with start page '" + bookPart.getFirstPage() + "' and last page '"
+                                + bookPart.getLastPage() + "'. New element will be added to structure element.",
+                        LogType.INFO);
+                ds = createElement(parent, bookPart);
             } else {
-                // if a metadata file can not be opened by goobi, this call may be the cause
-                ds.setType(bitsChildType);
-                addMetadata(ds, bookPart.getMetadata(), true);
+                if (ds.getType().getName().equals(bitsChildType.getName())) {
+                    // mapped by a previous execution
+                    updateMetadata(ds, bookPart.getMetadata(), elementTypes, elementTargets);
+                } else {
+                    // if a metadata file can not be opened by goobi, this call may be the cause
+                    ds.setType(bitsChildType);
+                    addMetadata(ds, bookPart.getMetadata(), true, elementTargets);
+                }
+                partsMatched++;
+                if (progress != null) {
+                    progress.bookPartMapped();
+                }
             }
 
             if (bookPart.getBookParts().size() > 0) {
-                MapToOrCreateElement(ds, bookPart.getBookParts());
+                // the nested book parts of an element that could not be created are added to its parent
+                MapToOrCreateElement(ds == null ? parent : ds, bookPart.getBookParts());
             }
         }
     }
 
-    private void addMetadata(DocStruct ds, ParsedMetadata metadata, boolean override) {
-        for (MetadataElement element : metadata.getMetadata()) {
-            try {
-                Metadata md = null;
-                if (override && overrideMetadaTypes.stream().anyMatch(mets -> mets.equals(element.getMets()))) {
-                    md = findExistingElement(ds, element.getMets());
-                    if (md == null) {
-                        md = new Metadata(prefs.getMetadataTypeByName(element.getMets()));
-                    } else {
-                        plugin.log(
-                                "The element '" + element.getMets() + "' with value '" + md.getValue() + "' was updated with '" + element.getValue()
-                                        + "'.",
-                                LogType.INFO, false);
-                    }
-                    md.setValue(element.getValue());
-                } else {
-                    md = new Metadata(prefs.getMetadataTypeByName(element.getMets()));
-                    md.setValue(element.getValue());
+    private void checkCancelled() {
+        if (progress != null) {
+            progress.checkCancelled();
+        }
+    }
 
-                    ds.addMetadata(md);
+    /**
+     * searches the structure element for the given pages. Exact matches are preferred, then matches within the configured tolerance, then
+     * containing and overlapping ranges, depending on the configured mode
+     * 
+     * @param firstPage
+     * @param lastPage
+     * @return the matching element or null
+     */
+    private DocstructPageMapping findMatchingElement(int firstPage, int lastPage) {
+        DocstructPageMapping match = pageIndex.findExact(firstPage, lastPage, 0, null);
+        if (match != null) {
+            return match;
+        }
+        Predicate<DocstructPageMapping> notMatched = range -> !matchedElements.contains(range.getDs());
+        if (pageMatchingTolerance > 0) {
+            match = pageIndex.findExact(firstPage, lastPage, pageMatchingTolerance, notMatched);
+        }
+        if (match == null && pageMatchingMode != PageRangeIndex.MatchMode.EXACT) {
+            match = pageIndex.findContaining(firstPage, lastPage, notMatched);
+        }
+        if (match == null && pageMatchingMode == PageRangeIndex.MatchMode.OVERLAP) {
+            match = pageIndex.findClosestOverlap(firstPage, lastPage, notMatched);
+        }
+        if (match != null) {
+            matchedElements.add(match.getDs());
+        }
+        return match;
+    }
 
+    /**
+     * adds the read metadata and persons to the structure element. Types that could not be resolved for the element are skipped, they were
+     * reported by {@link #resolveTargetTypes()}
+     * 
+     * @param ds structure element
+     * @param metadata read metadata
+     * @param override replace the value of an existing metadata of the types in overrideMetadaTypes instead of adding another one
+     * @param targets resolved types of the structure element
+     */
+    private void addMetadata(DocStruct ds, ParsedMetadata metadata, boolean override, TargetTypes targets) {
+        for (MetadataElement element : metadata.getMetadata()) {
+            MetadataType type = targets.get(element.getMetsId());
+            if (type == null) {
+                continue;
+            }
+            if (override && overrideMetadaTypes.contains(type.getName())) {
+                List<? extends Metadata> existing = ds.getAllMetadataByType(type);
+                if (existing != null && !existing.isEmpty()) {
+                    Metadata md = existing.get(0);
+                    plugin.log("metadata values of existing structure elements were updated.",
+                            "The element '" + type.getName() + "' with value '" + md.getValue() + "' was updated with '" + element.getValue() + "'.",
+                            LogType.INFO);
+                    md.setValue(element.getValue());
+                    continue;
                 }
+            }
+            try {
+                Metadata md = new Metadata(type);
+                md.setValue(element.getValue());
+                ds.addMetadata(md);
             } catch (MetadataTypeNotAllowedException ex) {
-                plugin.log(
-                        "Could not add metadata of type '" + element.getMets()
-                                + "' to structure element. Please update the ruleset or the configuration file.",
-                        LogType.ERROR, false);
+                // the type is allowed, but the element already has the maximum number of values
+                plugin.log("metadata values exceeding the number allowed by the ruleset were skipped.",
+                        "Could not add metadata of type '" + type.getName() + "' with value '" + element.getValue() + "' to structure element.",
+                        LogType.ERROR);
             }
         }
         for (ParsedPerson person : metadata.getPersons()) {
+            MetadataType type = targets.get(person.getMetsId());
+            if (type == null) {
+                continue;
+            }
             try {
-                Person p = new Person(prefs.getMetadataTypeByName(person.getMets()));
+                Person p = new Person(type);
                 p.setFirstname(person.getFirstName());
                 p.setLastname(person.getLastName());
 
                 ds.addPerson(p);
-            } catch (Exception ex) {
-                plugin.log(
-                        "Could not add person with role '" + person.getMets()
-                                + "' to structure element. Please update the ruleset or the configuration file.",
-                        LogType.ERROR, false);
+            } catch (MetadataTypeNotAllowedException | IncompletePersonObjectException ex) {
+                plugin.log("persons exceeding the number allowed by the ruleset were skipped.",
+                        "Could not add person with role '" + type.getName() + "' to structure element.", LogType.ERROR);
+            }
+        }
+    }
+
+    /**
+     * updates an element that was mapped by a previous execution. Values of a mapped type are only added if the element has no value of this
+     * type yet. Existing values are never replaced, they may have been corrected in Goobi since the previous execution. If they differ from the
+     * read values, the difference is reported. Values of types that are not mapped are left untouched
+     * 
+     * @param ds element that was mapped by a previous execution
+     * @param metadata read metadata
+     * @param mappedTypes metadata and person types of the mapping
+     * @param targets resolved types of the structure element
+     */
+    private void updateMetadata(DocStruct ds, ParsedMetadata metadata, Set<String> mappedTypes, TargetTypes targets) {
+        Map<String, List<String>> existingValues = new HashMap<>();
+        if (ds.getAllMetadata() != null) {
+            for (Metadata md : ds.getAllMetadata()) {
+                if (mappedTypes.contains(md.getType().getName())) {
+                    existingValues.computeIfAbsent(md.getType().getName(), key -> new ArrayList<>()).add(md.getValue());
+                }
+            }
+        }
+        if (ds.getAllPersons() != null) {
+            for (Person p : ds.getAllPersons()) {
+                if (mappedTypes.contains(p.getType().getName())) {
+                    existingValues.computeIfAbsent(p.getType().getName(), key -> new ArrayList<>()).add(p.getLastname() + ", " + p.getFirstname());
+                }
+            }
+        }
+        Map<String, List<String>> readValues = new HashMap<>();
+        List<MetadataElement> addedMetadata = new ArrayList<>();
+        List<ParsedPerson> addedPersons = new ArrayList<>();
+        for (MetadataElement element : metadata.getMetadata()) {
+            readValues.computeIfAbsent(element.getMets(), key -> new ArrayList<>()).add(element.getValue());
+            if (!existingValues.containsKey(element.getMets())) {
+                addedMetadata.add(element);
+            }
+        }
+        for (ParsedPerson person : metadata.getPersons()) {
+            readValues.computeIfAbsent(person.getMets(), key -> new ArrayList<>()).add(person.getLastName() + ", " + person.getFirstName());
+            if (!existingValues.containsKey(person.getMets())) {
+                addedPersons.add(person);
+            }
+        }
+        boolean unchanged = addedMetadata.isEmpty() && addedPersons.isEmpty();
+        for (Map.Entry<String, List<String>> existing : existingValues.entrySet()) {
+            List<String> values = existing.getValue();
+            List<String> read = readValues.getOrDefault(existing.getKey(), Collections.emptyList());
+            Collections.sort(values);
+            Collections.sort(read);
+            if (!values.equals(read)) {
+                unchanged = false;
+                plugin.log("values of existing structure elements differ from the XML-File and were kept.",
+                        "The values " + values + " of the element '" + existing.getKey() + "' differ from the values " + read
+                                + " of the XML-File. They were kept, because they may have been corrected since the last execution.",
+                        LogType.INFO);
             }
         }
+        if (unchanged) {
+            partsUnchanged++;
+            return;
+        }
+        addMetadata(ds, ParsedMetadata.of(addedPersons, addedMetadata), false, targets);
     }
 
+    /**
+     * links the pages to the structure element. Each physical page is created only once, pages that already exist in the physical structure or
+     * were created for another element are only referenced
+     */
     private void linkImageFiles(DocStruct ds, int firstPage, int lastPage) {
         for (int currentPage = firstPage; currentPage <= lastPage; currentPage++) {
-            if (!addPage(ds, this.imageFiles.get(currentPage - 1), currentPage)) {
+            DocStruct dsPage = pageTable.getPage(currentPage);
+            if (dsPage == null) {
+                String fileName = pageTable.getFileName(currentPage);
+                if (fileName == null) {
+                    plugin.log("pages could not be added to the structure, because there is no image for them.",
+                            "Couldn't add Page to Structure. There is no image for page " + currentPage + ".", LogType.ERROR);
+                    continue;
+                }
+                dsPage = createPage(fileName, currentPage);
+            }
+            if (dsPage == null) {
                 plugin.log("Couldn't add Page to Structure", LogType.ERROR, false);
+            } else {
+                ds.addReferenceTo(dsPage, "logical_physical");
+                pagesLinked++;
+                if (progress != null) {
+                    progress.pageLinked();
+                }
             }
         }
     }
 
     /**
-     * adds page to the physical docstruct and links it to the logical docstruct-element
+     * adds page to the physical docstruct and registers it in the page table
      * 
-     * @param ds
-     * @param dd
-     * @param imageFile
-     * @return true if successful
+     * @param fileName name of the image file
+     * @param pageNumber physical page number
+     * @return the created page or null if it could not be created
      */
-    private boolean addPage(DocStruct ds, Path imageFile, int PageCount) {
+    private DocStruct createPage(String fileName, int pageNumber) {
         try {
-            DocStructType newPage = prefs.getDocStrctTypeByName("page");
-            DocStruct dsPage = digitalDocument.createDocStruct(newPage);
+            DocStruct dsPage = digitalDocument.createDocStruct(pageType);
             // physical page no
             physical.addChild(dsPage);
-            MetadataType mdt = prefs.getMetadataTypeByName("physPageNumber");
-            Metadata mdTemp = new Metadata(mdt);
-            mdTemp.setValue(String.valueOf(PageCount));
+            Metadata mdTemp = new Metadata(physPageNumberType);
+            mdTemp.setValue(String.valueOf(pageNumber));
             dsPage.addMetadata(mdTemp);
 
             // logical page no
-            mdt = prefs.getMetadataTypeByName("logicalPageNumber");
-            mdTemp = new Metadata(mdt);
+            mdTemp = new Metadata(logicalPageNumberType);
 
             mdTemp.setValue("uncounted");
 
             dsPage.addMetadata(mdTemp);
-            ds.addReferenceTo(dsPage, "logical_physical");
 
             // image name
             ContentFile cf = new ContentFile();
 
-            cf.setLocation("file://" + imageFile.toFile().getName());
+            cf.setLocation("file://" + fileName);
 
             dsPage.addContentFile(cf);
-            return true;
+            pageTable.setPage(pageNumber, dsPage);
+            pagesCreated++;
+            return dsPage;
         } catch (TypeNotAllowedAsChildException | TypeNotAllowedForParentException e) {
             plugin.log("Error creating page. Type not allowed as child/for parent.", LogType.ERROR, false);
-            return false;
+            return null;
         } catch (MetadataTypeNotAllowedException e) {
             plugin.log("Error creating page. Metadata type not allowed.", LogType.ERROR, false);
-            return false;
+            return null;
         }
     }
 
     /**
-     * tries to find existing MetadataElement of the given element
-     * 
-     * @param ds DocStruct element that will be searched
-     * @param elementType type name of the metadata element
-     * @return
+     * metadata and person types of one structure type, indexed by the interned name of the mapping. Each name is resolved against the ruleset
+     * once, undefined and not allowed types are reported on their first use and resolve to null
      */
-    private Metadata findExistingElement(DocStruct ds, String elementType) {
-        if (ds.getAllMetadata() != null) {
-            for (Metadata md : ds.getAllMetadata()) {
-                if (md.getType().getName().equals(elementType)) {
-                    return md;
+    private class TargetTypes {
+        private final DocStructType structType;
+        private final Set<String> allowedTypes = new HashSet<>();
+        private MetadataType[] types = new MetadataType[16];
+        private boolean[] resolved = new boolean[16];
+
+        TargetTypes(DocStructType structType) {
+            this.structType = structType;
+            List<MetadataType> allowed = structType.getAllMetadataTypes();
+            if (allowed != null) {
+                for (MetadataType type : allowed) {
+                    allowedTypes.add(type.getName());
                 }
             }
         }
-        return null;
+
+        MetadataType get(int id) {
+            if (id < 0) {
+                return null;
+            }
+            if (id >= resolved.length) {
+                int size = Math.max(id + 1, resolved.length * 2);
+                types = Arrays.copyOf(types, size);
+                resolved = Arrays.copyOf(resolved, size);
+            }
+            if (!resolved[id]) {
+                types[id] = resolve(FieldNames.getName(id));
+                resolved[id] = true;
+            }
+            return types[id];
+        }
+
+        private MetadataType resolve(String name) {
+            MetadataType type = prefs.getMetadataTypeByName(name);
+            if (type == null) {
+                plugin.log("The metadata type '" + name + "' is not defined in the ruleset. Please update the ruleset or the configuration file.",
+                        LogType.ERROR, false);
+                return null;
+            }
+            if (!allowedTypes.contains(name)) {
+                plugin.log("The metadata type '" + name + "' is not allowed for the structure type '" + structType.getName()
+                        + "'. Please update the ruleset or the configuration file.", LogType.ERROR, false);
+                return null;
+            }
+            return type;
+        }
     }
 
     @Data
     @AllArgsConstructor
-    public class DocstructPageMapping {
+    public static class DocstructPageMapping {
         private DocStruct ds;
         private int firstPage;
         private int lastPage;
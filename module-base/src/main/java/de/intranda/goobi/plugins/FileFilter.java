@@ -1,43 +1,182 @@
 package de.intranda.goobi.plugins;
 
 import java.io.IOException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 import de.sub.goobi.helper.StorageProvider;
 import de.sub.goobi.helper.StorageProviderInterface;
+import lombok.extern.log4j.Log4j2;
 
+@Log4j2
 public class FileFilter {
 
-    private static StorageProviderInterface SPI = StorageProvider.getInstance();
+    // replaced by the integration tests, that run without the storage of Goobi
+    private static StorageProviderInterface SPI;
 
-    private static boolean regexFileFilter(Path path, String regex) {
+    public enum FileType {
+        IMAGE("(?i)tiff?|jpg"),
+        PDF("(?i)pdf"),
+        XML("(?i)xml"),
+        // gzip compressed BITS files and zip packages, see BitsSource
+        XML_ARCHIVE("(?i)xml\\.gz|zip");
 
-        try {
-            return !Files.isDirectory(path) && !Files.isHidden(path) && path.getFileName().toString().matches(regex);
+        // matched against the last or the last two file extensions
+        private final Pattern extension;
 
-        } catch (IOException e) {
-            // if we can't open it we will not add it to the List
-            return false;
+        FileType(String extension) {
+            this.extension = Pattern.compile(extension);
+        }
+
+        /**
+         * @return the type of the file with the given name or null if it is none of the types
+         */
+        public static FileType classify(String fileName) {
+            int dot = fileName.lastIndexOf('.');
+            // hidden files are ignored
+            if (dot < 0 || fileName.startsWith(".")) {
+                return null;
+            }
+            String suffix = fileName.substring(dot + 1);
+            int previousDot = fileName.lastIndexOf('.', dot - 1);
+            String doubleSuffix = previousDot > 0 ? fileName.substring(previousDot + 1) : suffix;
+            for (FileType type : values()) {
+                if (type.extension.matcher(doubleSuffix).matches() || type.extension.matcher(suffix).matches()) {
+                    return type;
+                }
+            }
+            return null;
         }
     }
-    
-    public static List<Path>getImageFiles(Path folder) {
-        return SPI.listFiles(folder.toString(), path -> {
-            return regexFileFilter(path, "(?i).*\\.tiff$|.*\\.jpg$|.*\\.tiff$|.*\\.tif$");
-        });
+
+    /**
+     * lists the folder once and sorts the files into the xml, archive, pdf and image buckets. The attributes of the entries are taken from the
+     * listing, subfolders are left out without checking each entry again. Folders that are not available in the local file system are listed by
+     * the storage provider of Goobi
+     * 
+     * @param folder
+     * @return the sorted files of the folder
+     */
+    public static FolderListing listFolder(Path folder) {
+        FolderListing listing = new FolderListing();
+        if (Files.isDirectory(folder)) {
+            try {
+                Files.walkFileTree(folder, Collections.emptySet(), 1, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (!attrs.isDirectory()) {
+                            listing.add(file);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        log.warn("PdfBookInterchangeConvert: Could not read the attributes of " + file, e);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException e) {
+                log.error("PdfBookInterchangeConvert: Could not list the folder " + folder, e);
+            }
+        } else {
+            // the storage of Goobi has no subfolders in a folder of the process, the files are sorted by their names only
+            getStorageProvider().listFiles(folder.toString(), listing::add);
+        }
+        for (List<Path> files : listing.files.values()) {
+            Collections.sort(files);
+        }
+        return listing;
+    }
+
+    /**
+     * @return the storage provider used to list and create the folders of the process
+     */
+    public static StorageProviderInterface getStorageProvider() {
+        if (SPI == null) {
+            SPI = StorageProvider.getInstance();
+        }
+        return SPI;
+    }
+
+    static void setStorageProvider(StorageProviderInterface storageProvider) {
+        SPI = storageProvider;
+    }
+
+    public static List<Path> getImageFiles(Path folder) {
+        return listFolder(folder).getImageFiles();
     }
 
     public static List<Path> getPdfFiles(Path folder) {
-        return SPI.listFiles(folder.toString(), path -> {
-            return regexFileFilter(path, "(?i).*\\.pdf$");
-        });
+        return listFolder(folder).getPdfFiles();
     }
 
     public static List<Path> getXmlFiles(Path folder) {
-        return SPI.listFiles(folder.toString(), path -> {
-            return regexFileFilter(path, "(?i).*\\.xml$");
-        });
+        return listFolder(folder).getXmlFiles();
+    }
+
+    /**
+     * Files of a folder sorted by their type
+     */
+    public static class FolderListing {
+        private final Map<FileType, List<Path>> files = new EnumMap<>(FileType.class);
+
+        private FolderListing() {
+            for (FileType type : FileType.values()) {
+                files.put(type, new ArrayList<>());
+            }
+        }
+
+        /**
+         * adds the file to the bucket of its type
+         *
+         * @return false if the file has none of the types
+         */
+        private boolean add(Path file) {
+            FileType type = FileType.classify(file.getFileName().toString());
+            if (type == null) {
+                return false;
+            }
+            files.get(type).add(file);
+            return true;
+        }
+
+        /**
+         * @return the files of the type, sorted by name. The list must not be modified
+         */
+        public List<Path> getFiles(FileType type) {
+            return Collections.unmodifiableList(files.get(type));
+        }
+
+        public List<Path> getImageFiles() {
+            return new ArrayList<>(files.get(FileType.IMAGE));
+        }
+
+        public List<Path> getPdfFiles() {
+            return new ArrayList<>(files.get(FileType.PDF));
+        }
+
+        public List<Path> getXmlFiles() {
+            return new ArrayList<>(files.get(FileType.XML));
+        }
+
+        /**
+         * @return the plain, gzip compressed and zipped xml files, sorted by name
+         */
+        public List<Path> getBitsFiles() {
+            List<Path> bitsFiles = new ArrayList<>(files.get(FileType.XML));
+            bitsFiles.addAll(files.get(FileType.XML_ARCHIVE));
+            Collections.sort(bitsFiles);
+            return bitsFiles;
+        }
     }
 }
@@ -0,0 +1,260 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jdom2.Attribute;
+import org.jdom2.Content;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Text;
+import org.jdom2.xpath.XPathExpression;
+
+/**
+ * Evaluates a list of xpath expressions against a node in a single walk over its subtree. Simple relative paths consisting of element names,
+ * optional attribute predicates like [@content-type='author'] and a final attribute or text() step are compiled into a shared path trie. All
+ * other expressions are evaluated with the compiled JDOM xpath expression. The result for each expression contains the same nodes in the same
+ * order as the xpath evaluation would return.
+ */
+public class MappingEngine {
+
+    private static final Pattern STEP = Pattern
+            .compile("([A-Za-z_][A-Za-z0-9_.\\-]*)(?:\\[\\s*@([A-Za-z_][A-Za-z0-9_.\\-]*)\\s*(?:=\\s*(?:'([^']*)'|\"([^\"]*)\"))?\\s*\\])?");
+    private static final Pattern ATTRIBUTE_STEP = Pattern.compile("@([A-Za-z_][A-Za-z0-9_.\\-]*)");
+    private static final String TEXT_STEP = "text()";
+
+    private final List<XPathExpression<Object>> expressions;
+    private final TrieNode root = new TrieNode(null);
+    // indexes of the expressions that could not be compiled into the trie
+    private final List<Integer> fallbacks = new ArrayList<>();
+
+    public MappingEngine(List<XPathExpression<Object>> expressions) {
+        this.expressions = expressions;
+        for (int i = 0; i < expressions.size(); i++) {
+            if (!compile(expressions.get(i).getExpression(), i)) {
+                fallbacks.add(i);
+            }
+        }
+    }
+
+    /**
+     * evaluates all expressions against the given node
+     *
+     * @param source JDOM Document or Element
+     * @return list with the result of each expression, in the order of the expressions
+     */
+    public List<List<Object>> evaluate(Object source) {
+        List<List<Object>> results = new ArrayList<>(expressions.size());
+        for (int i = 0; i < expressions.size(); i++) {
+            results.add(new ArrayList<>());
+        }
+        List<Element> children;
+        if (source instanceof Element) {
+            children = ((Element) source).getChildren();
+        } else if (source instanceof Document && ((Document) source).hasRootElement()) {
+            children = Collections.singletonList(((Document) source).getRootElement());
+        } else {
+            children = Collections.emptyList();
+        }
+        if (!root.isEmpty()) {
+            List<TrieNode> direct = Collections.singletonList(root);
+            List<TrieNode> inherited = root.descendantEdges.isEmpty() ? Collections.emptyList() : direct;
+            for (Element child : children) {
+                visit(child, direct, inherited, results);
+            }
+        }
+        for (Integer index : fallbacks) {
+            results.get(index).addAll(expressions.get(index).evaluate(source));
+        }
+        return results;
+    }
+
+    /**
+     *
+     * @param element element to visit
+     * @param direct trie nodes matched by the parent element, their child edges are tested
+     * @param inherited trie nodes matched by an ancestor, their descendant edges are tested
+     * @param results
+     */
+    private void visit(Element element, List<TrieNode> direct, List<TrieNode> inherited, List<List<Object>> results) {
+        List<TrieNode> matched = new ArrayList<>();
+        for (TrieNode node : direct) {
+            for (TrieNode next : node.childEdges.values()) {
+                if (next.step.matches(element) && !matched.contains(next)) {
+                    matched.add(next);
+                }
+            }
+        }
+        for (TrieNode node : inherited) {
+            for (TrieNode next : node.descendantEdges.values()) {
+                if (next.step.matches(element) && !matched.contains(next)) {
+                    matched.add(next);
+                }
+            }
+        }
+        List<TrieNode> childInherited = inherited;
+        for (TrieNode node : matched) {
+            collect(node, element, results);
+            if (!node.descendantEdges.isEmpty() && !childInherited.contains(node)) {
+                if (childInherited == inherited) {
+                    childInherited = new ArrayList<>(inherited);
+                }
+                childInherited.add(node);
+            }
+        }
+        if (matched.isEmpty() && childInherited.isEmpty()) {
+            // no expression can select anything below this element
+            return;
+        }
+        for (Element child : element.getChildren()) {
+            visit(child, matched, childInherited, results);
+        }
+    }
+
+    private void collect(TrieNode node, Element element, List<List<Object>> results) {
+        for (Integer index : node.elementTargets) {
+            results.get(index).add(element);
+        }
+        for (Map.Entry<String, List<Integer>> entry : node.attributeTargets.entrySet()) {
+            Attribute attribute = element.getAttribute(entry.getKey());
+            if (attribute != null) {
+                for (Integer index : entry.getValue()) {
+                    results.get(index).add(attribute);
+                }
+            }
+        }
+        if (!node.textTargets.isEmpty()) {
+            for (Content content : element.getContent()) {
+                if (content instanceof Text) {
+                    for (Integer index : node.textTargets) {
+                        results.get(index).add(content);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * adds the expression to the trie
+     *
+     * @return false if the expression can not be compiled and must be evaluated with xpath
+     */
+    private boolean compile(String expression, int index) {
+        if (expression == null) {
+            return false;
+        }
+        List<String> parts = StreamingBitsParser.splitTopLevel(expression.trim(), '/');
+        if (parts.size() < 2 || !".".equals(parts.get(0))) {
+            return false;
+        }
+        // validate first, the trie must not be changed by expressions that fall back to xpath
+        List<Step> steps = new ArrayList<>();
+        List<Boolean> descendant = new ArrayList<>();
+        String attribute = null;
+        boolean text = false;
+        boolean nextIsDescendant = false;
+        for (int i = 1; i < parts.size(); i++) {
+            String part = parts.get(i).trim();
+            boolean last = i == parts.size() - 1;
+            if (part.isEmpty()) {
+                if (nextIsDescendant || last) {
+                    return false;
+                }
+                nextIsDescendant = true;
+                continue;
+            }
+            Matcher attributeMatcher = ATTRIBUTE_STEP.matcher(part);
+            if (attributeMatcher.matches() || TEXT_STEP.equals(part)) {
+                if (!last || nextIsDescendant || steps.isEmpty()) {
+                    return false;
+                }
+                if (TEXT_STEP.equals(part)) {
+                    text = true;
+                } else {
+                    attribute = attributeMatcher.group(1);
+                }
+                continue;
+            }
+            Matcher stepMatcher = STEP.matcher(part);
+            if (!stepMatcher.matches()) {
+                return false;
+            }
+            String value = stepMatcher.group(3) != null ? stepMatcher.group(3) : stepMatcher.group(4);
+            steps.add(new Step(stepMatcher.group(1), stepMatcher.group(2), value));
+            descendant.add(nextIsDescendant);
+            nextIsDescendant = false;
+        }
+        if (steps.isEmpty()) {
+            return false;
+        }
+
+        TrieNode node = root;
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            Map<String, TrieNode> edges = descendant.get(i) ? node.descendantEdges : node.childEdges;
+            TrieNode next = edges.get(step.getKey());
+            if (next == null) {
+                next = new TrieNode(step);
+                edges.put(step.getKey(), next);
+            }
+            node = next;
+        }
+        if (attribute != null) {
+            node.attributeTargets.computeIfAbsent(attribute, k -> new ArrayList<>()).add(index);
+        } else if (text) {
+            node.textTargets.add(index);
+        } else {
+            node.elementTargets.add(index);
+        }
+        return true;
+    }
+
+    private static class Step {
+        private final String name;
+        private final String attribute;
+        private final String value;
+
+        private Step(String name, String attribute, String value) {
+            this.name = name;
+            this.attribute = attribute;
+            this.value = value;
+        }
+
+        private String getKey() {
+            return attribute == null ? name : name + "[@" + attribute + (value == null ? "" : "='" + value + "'") + "]";
+        }
+
+        private boolean matches(Element element) {
+            if (!name.equals(element.getName()) || !element.getNamespaceURI().isEmpty()) {
+                return false;
+            }
+            if (attribute == null) {
+                return true;
+            }
+            String attributeValue = element.getAttributeValue(attribute);
+            return attributeValue != null && (value == null || value.equals(attributeValue));
+        }
+    }
+
+    private static class TrieNode {
+        private final Step step;
+        private final Map<String, TrieNode> childEdges = new LinkedHashMap<>();
+        private final Map<String, TrieNode> descendantEdges = new LinkedHashMap<>();
+        private final List<Integer> elementTargets = new ArrayList<>();
+        private final Map<String, List<Integer>> attributeTargets = new LinkedHashMap<>();
+        private final List<Integer> textTargets = new ArrayList<>();
+
+        private TrieNode(Step step) {
+            this.step = step;
+        }
+
+        private boolean isEmpty() {
+            return childEdges.isEmpty() && descendantEdges.isEmpty();
+        }
+    }
+}
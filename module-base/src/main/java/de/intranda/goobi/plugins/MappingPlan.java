@@ -0,0 +1,491 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.lang3.StringUtils;
+import org.goobi.beans.Step;
+import org.goobi.production.enums.LogType;
+import org.jdom2.xpath.XPathExpression;
+
+import de.intranda.goobi.plugins.PdfBookInterchangeConvertStepPlugin.MetadataMapping;
+import de.intranda.goobi.plugins.PdfBookInterchangeConvertStepPlugin.PersonMapping;
+import de.sub.goobi.config.ConfigPlugins;
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Immutable result of reading and compiling the plugin configuration for a project and step. The plans are cached for all plugin instances and
+ * compiled again as soon as the configuration file is modified.
+ */
+@Getter
+public class MappingPlan {
+
+    private static final Map<String, MappingPlan> PLANS = new ConcurrentHashMap<>();
+    private static final String DEFAULT_PDF_PAGE_FILE_NAMES = "%08d.tif";
+    private static final List<String> DEFAULT_VOLUME_MATCHING = Arrays.asList("ISBN", "CurrentNo");
+    private static final ConfigSource GOOBI_CONFIG = new ConfigSource() {
+        @Override
+        public SubnodeConfiguration getConfig(String title, Step step) {
+            return ConfigPlugins.getProjectAndStepConfig(title, step);
+        }
+
+        @Override
+        public long getLastModified(String title) {
+            return getConfigLastModified(title);
+        }
+    };
+    private static ConfigSource configSource = GOOBI_CONFIG;
+
+    // errors and hints of the configuration, reported by every execution that uses the plan
+    @Getter(AccessLevel.NONE)
+    private final List<ConfigMessage> messages = new ArrayList<>();
+
+    /**
+     * reads the plugin configuration, replaced by the tests that run without the configuration folder of Goobi
+     */
+    interface ConfigSource {
+        SubnodeConfiguration getConfig(String title, Step step);
+
+        /**
+         * @return the modification time of the configuration, the plans are compiled again if it changes
+         */
+        long getLastModified(String title);
+    }
+
+    /**
+     * message about the configuration for the process log
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class ConfigMessage {
+        private final LogType type;
+        private final String message;
+    }
+
+    /**
+     * source of the pages the book parts are linked to
+     */
+    public enum PageSource {
+        // the images in the master folder
+        IMAGES,
+        // the pages of the pdf file, the image files need not exist yet
+        PDF,
+        // the images if the master folder contains any, otherwise the pages of the pdf file
+        AUTO
+    }
+
+    @Getter(AccessLevel.NONE)
+    private final long configLastModified;
+    private final String structureTypePdf;
+    private final String structureTypeBits;
+    @Getter(AccessLevel.NONE)
+    private final List<MetadataMapping> publicationMetadata;
+    @Getter(AccessLevel.NONE)
+    private final List<PersonMapping> publicationPersons;
+    @Getter(AccessLevel.NONE)
+    private final List<MetadataMapping> elementMetadata;
+    @Getter(AccessLevel.NONE)
+    private final List<PersonMapping> elementPersons;
+    @Getter(AccessLevel.NONE)
+    private final XPathExpression<Object> elementFpagePath;
+    @Getter(AccessLevel.NONE)
+    private final XPathExpression<Object> elementLPagePath;
+    @Getter(AccessLevel.NONE)
+    private final XPathExpression<Object> bookPartNodePath;
+    private final boolean hierarchicalBookParts;
+    private final StreamingBitsParser streamingParser;
+    private final BitsEntityResolver entityResolver;
+    private final int rulesetCacheSize;
+    private final int pageMatchingTolerance;
+    private final PageRangeIndex.MatchMode pageMatchingMode;
+    private final boolean processLogDetails;
+    private final boolean asynchronous;
+    private final int readerParallelism;
+    // metadata type for the checksum of the BITS file and this configuration, null if repeated executions are not recognized
+    private final String checksumMetadata;
+    private final String fingerprint;
+    // source of the page count and the image file names
+    private final PageSource pageSource;
+    // format pattern of the image file names of the pages counted in the pdf file
+    private final String pdfPageFileNames;
+    // metadata type of the titles used to match book parts without matching pages, null if disabled
+    private final String titleMatchingField;
+    private final double titleMatchingThreshold;
+    // added to the printed page numbers of the book parts
+    private final int pageOffset;
+    // detect the offset between the printed and the physical page numbers
+    private final boolean pageOffsetDetection;
+    // metadata types that identify the volume of a multi-volume work a BITS file belongs to
+    private final List<String> volumeMatching;
+
+    private MappingPlan(SubnodeConfiguration myconfig, long configLastModified) {
+        this.configLastModified = configLastModified;
+        this.structureTypePdf = myconfig.getString("structureTypePdf", null);
+        this.structureTypeBits = myconfig.getString("structureTypeBits", null);
+        this.publicationMetadata = getMetadataMapping("publicationMapping", myconfig);
+        this.publicationPersons = getPersonMapping("publicationMapping", myconfig);
+        this.elementFpagePath = compileXpath(myconfig.getString("//elementMapping/fpage/@xpath", null), "elementMapping/fpage");
+        this.elementLPagePath = compileXpath(myconfig.getString("//elementMapping/lpage/@xpath", null), "elementMapping/lpage");
+        this.elementMetadata = getMetadataMapping("elementMapping", myconfig);
+        this.elementPersons = getPersonMapping("elementMapping", myconfig);
+        this.bookPartNodePath = compileXpath(myconfig.getString("//elementMapping/@xpathNode", null), "elementMapping/@xpathNode");
+        this.hierarchicalBookParts = myconfig.getBoolean("//elementMapping/@hierarchical", false);
+        String catalogFolder = myconfig.getString("entityCatalog/@folder", null);
+        this.entityResolver = new BitsEntityResolver(StringUtils.isBlank(catalogFolder) ? null : Paths.get(catalogFolder),
+                myconfig.getBoolean("entityCatalog/@offline", false));
+        this.rulesetCacheSize = myconfig.getInt("rulesetCacheSize", PreferencesCache.DEFAULT_MAX_SIZE);
+        this.pageMatchingTolerance = myconfig.getInt("pageMatching/@tolerance", 0);
+        this.pageMatchingMode = getMatchMode(myconfig.getString("pageMatching/@mode", "exact"));
+        this.processLogDetails = myconfig.getBoolean("processLogDetails", false);
+        this.asynchronous = myconfig.getBoolean("asynchronous", false);
+        this.readerParallelism = Math.max(1, myconfig.getInt("readerParallelism", 1));
+        this.checksumMetadata = StringUtils.trimToNull(myconfig.getString("checksumMetadata", null));
+        this.pageSource = getPageSource(myconfig.getString("pageSource", "images"));
+        this.volumeMatching = getVolumeMatching(myconfig);
+        this.titleMatchingField = myconfig.getBoolean("titleMatching/@enabled", false)
+                ? StringUtils.trimToNull(myconfig.getString("titleMatching/@field", "TitleDocMain"))
+                : null;
+        this.titleMatchingThreshold = myconfig.getDouble("titleMatching/@threshold", 0.8);
+        this.pageOffset = myconfig.getInt("pageOffset", 0);
+        this.pageOffsetDetection = myconfig.getBoolean("pageOffset/@detect", false);
+        this.pdfPageFileNames = getPdfPageFileNames(myconfig.getString("pageSource/@fileNames", DEFAULT_PDF_PAGE_FILE_NAMES));
+        if (myconfig.getBoolean("useStreamingReader", false)) {
+            this.streamingParser = createStreamingParser();
+        } else {
+            this.streamingParser = null;
+        }
+        this.fingerprint = createFingerprint();
+    }
+
+    /**
+     * returns the plan for the project and step of the given step. The plan is compiled if it was not compiled before or if the configuration
+     * file was modified since
+     *
+     * @param title title of the plugin
+     * @param step step the plugin is executed for
+     * @return the compiled plan, its configuration errors are reported by {@link #getMessages()}
+     */
+    public static MappingPlan getPlan(String title, Step step) {
+        String key = step.getProzess().getProjekt().getTitel() + "|" + step.getTitel();
+        long lastModified = configSource.getLastModified(title);
+        MappingPlan plan = PLANS.get(key);
+        if (plan == null || plan.configLastModified != lastModified) {
+            plan = new MappingPlan(configSource.getConfig(title, step), lastModified);
+            PLANS.put(key, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * compiles the given configuration without caching it, used by the integration tests
+     */
+    static MappingPlan compile(SubnodeConfiguration myconfig) {
+        return new MappingPlan(myconfig, -1);
+    }
+
+    /**
+     * replaces the configuration of Goobi and removes all cached plans
+     *
+     * @param source source of the configuration, null for the configuration of Goobi
+     */
+    static void setConfigSource(ConfigSource source) {
+        configSource = source != null ? source : GOOBI_CONFIG;
+        PLANS.clear();
+    }
+
+    private static long getConfigLastModified(String title) {
+        Path configFile = Paths.get(ConfigurationHelper.getInstance().getConfigurationFolder(), "plugin_" + title + ".xml");
+        try {
+            return Files.getLastModifiedTime(configFile).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the errors and hints of the configuration, they must be reported by every execution that uses the plan
+     */
+    public List<ConfigMessage> getMessages() {
+        return Collections.unmodifiableList(messages);
+    }
+
+    /**
+     * @return false if a mandatory part of the mapping is missing or invalid, the plan can not be used for a conversion then
+     */
+    public boolean isComplete() {
+        return publicationMetadata != null && publicationPersons != null && elementMetadata != null && elementPersons != null
+                && elementFpagePath != null && elementLPagePath != null && bookPartNodePath != null;
+    }
+
+    private void addMessage(LogType type, String message) {
+        messages.add(new ConfigMessage(type, message));
+    }
+
+    /**
+     * compiles a mandatory xpath expression of the configuration
+     *
+     * @param setting name of the setting for the error message
+     * @return the expression or null if it is missing or invalid
+     */
+    private XPathExpression<Object> compileXpath(String expression, String setting) {
+        if (StringUtils.isBlank(expression)) {
+            addMessage(LogType.ERROR, "The xpath expression of " + setting + " is missing. Update the configuration file");
+            return null;
+        }
+        try {
+            return BitsXmlReader.compileXpath(expression);
+        } catch (IllegalArgumentException ex) {
+            addMessage(LogType.ERROR, "Invalid xpath expression '" + expression + "' of " + setting + ". Update the configuration file");
+            return null;
+        }
+    }
+
+    /**
+     * compiled xpath expressions are not thread safe, therefore all getters of mappings and expressions return copies
+     */
+    public List<MetadataMapping> getPublicationMetadata() {
+        return copyMetadataMappings(publicationMetadata);
+    }
+
+    public List<PersonMapping> getPublicationPersons() {
+        return copyPersonMappings(publicationPersons);
+    }
+
+    public List<MetadataMapping> getElementMetadata() {
+        return copyMetadataMappings(elementMetadata);
+    }
+
+    public List<PersonMapping> getElementPersons() {
+        return copyPersonMappings(elementPersons);
+    }
+
+    public XPathExpression<Object> getElementFpagePath() {
+        return elementFpagePath == null ? null : elementFpagePath.clone();
+    }
+
+    public XPathExpression<Object> getElementLPagePath() {
+        return elementLPagePath == null ? null : elementLPagePath.clone();
+    }
+
+    public XPathExpression<Object> getBookPartNodePath() {
+        return bookPartNodePath == null ? null : bookPartNodePath.clone();
+    }
+
+    private static List<MetadataMapping> copyMetadataMappings(List<MetadataMapping> mappings) {
+        if (mappings == null) {
+            return null;
+        }
+        List<MetadataMapping> copies = new ArrayList<>(mappings.size());
+        for (MetadataMapping mapping : mappings) {
+            copies.add(new MetadataMapping(mapping.getXpath().clone(), mapping.getMets()));
+        }
+        return copies;
+    }
+
+    private static List<PersonMapping> copyPersonMappings(List<PersonMapping> mappings) {
+        if (mappings == null) {
+            return null;
+        }
+        List<PersonMapping> copies = new ArrayList<>(mappings.size());
+        for (PersonMapping mapping : mappings) {
+            copies.add(new PersonMapping(mapping.getXpathFirstname().clone(), mapping.getXpathLastname().clone(), mapping.getMets(),
+                    mapping.getXpathNode().clone()));
+        }
+        return copies;
+    }
+
+    /**
+     * @return the metadata mappings or null if one of them is incomplete
+     */
+    private List<MetadataMapping> getMetadataMapping(String mapping, SubnodeConfiguration myconfig) {
+        List<MetadataMapping> mappings = new ArrayList<>();
+        boolean complete = true;
+        for (HierarchicalConfiguration node : myconfig.configurationsAt("//" + mapping + "/metadata")) {
+            XPathExpression<Object> xpath = compileXpath(node.getString("@value", null), mapping + "/metadata/@value");
+            String mets = node.getString("@field", null);
+            if (xpath == null || StringUtils.isBlank(mets)) {
+                complete = false;
+            } else {
+                mappings.add(new MetadataMapping(xpath, mets));
+            }
+        }
+        if (!complete) {
+            addMessage(LogType.ERROR, "Invalid " + mapping + " - A mandatory argument is missing. Update the configuration file");
+            return null;
+        }
+        return Collections.unmodifiableList(mappings);
+    }
+
+    /**
+     * @return the person mappings or null if one of them is incomplete
+     */
+    private List<PersonMapping> getPersonMapping(String mapping, SubnodeConfiguration myconfig) {
+        List<PersonMapping> mappings = new ArrayList<>();
+        boolean complete = true;
+        for (HierarchicalConfiguration node : myconfig.configurationsAt("//" + mapping + "/person")) {
+            XPathExpression<Object> xpathFirstname = compileXpath(node.getString("@firstname", null), mapping + "/person/@firstname");
+            XPathExpression<Object> xpathLastname = compileXpath(node.getString("@lastname", null), mapping + "/person/@lastname");
+            String mets = node.getString("@role", null);
+            XPathExpression<Object> xpathNode = compileXpath(node.getString("@xpathNode", null), mapping + "/person/@xpathNode");
+            if (xpathFirstname == null || xpathLastname == null || xpathNode == null || StringUtils.isBlank(mets)) {
+                complete = false;
+            } else {
+                mappings.add(new PersonMapping(xpathFirstname, xpathLastname, mets, xpathNode));
+            }
+        }
+        if (!complete) {
+            addMessage(LogType.ERROR, "Invalid " + mapping + " - A mandatory argument is missing. Update the configuration file");
+            return null;
+        }
+        return Collections.unmodifiableList(mappings);
+    }
+
+    /**
+     * @return all settings that influence the result of the mapping, used for the checksum of repeated executions
+     */
+    private String createFingerprint() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(structureTypePdf).append('|').append(structureTypeBits).append('|');
+        for (List<MetadataMapping> mappings : Arrays.asList(publicationMetadata, elementMetadata)) {
+            if (mappings != null) {
+                for (MetadataMapping mapping : mappings) {
+                    sb.append(mapping.getXpath().getExpression()).append('=').append(mapping.getMets()).append('|');
+                }
+            }
+        }
+        for (List<PersonMapping> mappings : Arrays.asList(publicationPersons, elementPersons)) {
+            if (mappings != null) {
+                for (PersonMapping mapping : mappings) {
+                    sb.append(mapping.getXpathNode().getExpression()).append(',').append(mapping.getXpathFirstname().getExpression()).append(',')
+                            .append(mapping.getXpathLastname().getExpression()).append('=').append(mapping.getMets()).append('|');
+                }
+            }
+        }
+        for (XPathExpression<Object> expression : Arrays.asList(elementFpagePath, elementLPagePath, bookPartNodePath)) {
+            sb.append(expression == null ? null : expression.getExpression()).append('|');
+        }
+        sb.append(hierarchicalBookParts).append('|');
+        sb.append(pageMatchingTolerance).append('|').append(pageMatchingMode).append('|');
+        sb.append(pageSource).append('|').append(pdfPageFileNames).append('|');
+        sb.append(titleMatchingField).append('|').append(titleMatchingThreshold).append('|');
+        sb.append(pageOffset).append('|').append(pageOffsetDetection);
+        return sb.toString();
+    }
+
+    private PageRangeIndex.MatchMode getMatchMode(String mode) {
+        try {
+            return PageRangeIndex.MatchMode.valueOf(mode.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            addMessage(LogType.ERROR, "Invalid pageMatching mode '" + mode + "'. Only exact matches will be used. Update the configuration file");
+            return PageRangeIndex.MatchMode.EXACT;
+        }
+    }
+
+    private static List<String> getVolumeMatching(SubnodeConfiguration myconfig) {
+        List<String> fields = new ArrayList<>();
+        for (Object field : myconfig.getList("volumeMatching/field", DEFAULT_VOLUME_MATCHING)) {
+            if (StringUtils.isNotBlank(String.valueOf(field))) {
+                fields.add(String.valueOf(field).trim());
+            }
+        }
+        return Collections.unmodifiableList(fields);
+    }
+
+    private PageSource getPageSource(String source) {
+        try {
+            return PageSource.valueOf(source.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            addMessage(LogType.ERROR, "Invalid pageSource '" + source + "'. The images of the master folder will be used. Update the configuration file");
+            return PageSource.IMAGES;
+        }
+    }
+
+    private String getPdfPageFileNames(String pattern) {
+        try {
+            String.format(pattern, 1);
+            return pattern;
+        } catch (IllegalFormatException ex) {
+            addMessage(LogType.ERROR, "Invalid file names '" + pattern + "' of the pageSource. '" + DEFAULT_PDF_PAGE_FILE_NAMES
+                    + "' will be used. Update the configuration file");
+            return DEFAULT_PDF_PAGE_FILE_NAMES;
+        }
+    }
+
+    /**
+     * creates a parser that only builds the parts of the BITS file that are addressed by the publication mapping and the book part nodes. All
+     * other expressions are evaluated inside of these parts and must not leave them
+     *
+     * @return the parser or null if the configured xpath expressions can not be used for streaming
+     */
+    private StreamingBitsParser createStreamingParser() {
+        if (!isComplete()) {
+            return null;
+        }
+        for (String expression : getSubtreeExpressions()) {
+            if (!StreamingBitsParser.isInsideSubtree(expression)) {
+                addMessage(LogType.INFO, "The xpath expression '" + expression
+                        + "' addresses elements outside of the book part or person it is read from and can not be used by the streaming reader. The complete XML-File will be read.");
+                return null;
+            }
+        }
+        List<String> expressions = new ArrayList<>();
+        for (MetadataMapping mapping : publicationMetadata) {
+            expressions.add(mapping.getXpath().getExpression());
+        }
+        for (PersonMapping mapping : publicationPersons) {
+            expressions.add(mapping.getXpathNode().getExpression());
+        }
+        expressions.add(bookPartNodePath.getExpression());
+        if (hierarchicalBookParts) {
+            // the nested book parts are not selected by the xpath, their metadata elements are kept wherever they occur
+            String metaElement = StringUtils.substringAfterLast(bookPartNodePath.getExpression(), "/");
+            if (!StreamingBitsParser.isPlainName(metaElement)) {
+                addMessage(LogType.INFO,
+                        "The xpathNode of the elementMapping can not be used by the streaming reader for nested book parts. The complete XML-File will be read.");
+                return null;
+            }
+            expressions.add("//" + metaElement);
+        }
+        StreamingBitsParser parser = StreamingBitsParser.create(expressions);
+        if (parser == null) {
+            addMessage(LogType.INFO, "The configured xpath expressions can not be used by the streaming reader. The complete XML-File will be read.");
+        }
+        return parser;
+    }
+
+    /**
+     * @return the expressions that are evaluated relative to a book part node or a person node
+     */
+    private List<String> getSubtreeExpressions() {
+        List<String> expressions = new ArrayList<>();
+        for (MetadataMapping mapping : elementMetadata) {
+            expressions.add(mapping.getXpath().getExpression());
+        }
+        for (PersonMapping mapping : elementPersons) {
+            expressions.add(mapping.getXpathNode().getExpression());
+            expressions.add(mapping.getXpathFirstname().getExpression());
+            expressions.add(mapping.getXpathLastname().getExpression());
+        }
+        for (PersonMapping mapping : publicationPersons) {
+            expressions.add(mapping.getXpathFirstname().getExpression());
+            expressions.add(mapping.getXpathLastname().getExpression());
+        }
+        expressions.add(elementFpagePath.getExpression());
+        expressions.add(elementLPagePath.getExpression());
+        return expressions;
+    }
+}
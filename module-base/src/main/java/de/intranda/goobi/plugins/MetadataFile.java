@@ -0,0 +1,139 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import org.apache.commons.lang3.StringUtils;
+import org.goobi.beans.Process;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.exceptions.SwapException;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.exceptions.ReadException;
+import ugh.exceptions.WriteException;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Reads and writes the metadata file of a process with the preferences of the {@link PreferencesCache}, so that the types of the file and of the
+ * mapping are taken from the same preferences. The file is written like Goobi does it: to a temporary file first, the previous versions are kept
+ * as numbered backups and the temporary files of the metadata and the anchor file replace the old ones afterwards. Processes with another
+ * internal file format than METS are read and written by Goobi itself.
+ */
+public class MetadataFile {
+
+    static final String TEMPORARY_PREFIX = "temp_";
+    private static final String ANCHOR_SUFFIX = "_anchor";
+
+    // number of backups of the metadata file, null for the number of the Goobi configuration
+    private static Integer numberOfBackups;
+
+    private MetadataFile() {
+    }
+
+    /**
+     * reads the metadata file of the process
+     *
+     * @param process
+     * @param prefs preferences of the ruleset of the process
+     * @return the read file
+     */
+    public static Fileformat read(Process process, Prefs prefs) throws PreferencesException, ReadException, IOException, SwapException {
+        if (!isMets(process)) {
+            return process.readMetadataFile();
+        }
+        Fileformat ff = new MetsMods(prefs);
+        ff.read(process.getMetadataFilePath());
+        return ff;
+    }
+
+    /**
+     * writes the metadata file of the process. The old file is only replaced if the new one was written completely
+     *
+     * @param process
+     * @param ff file to write, read by {@link #read(Process, Prefs)}
+     */
+    public static void write(Process process, Fileformat ff) throws PreferencesException, WriteException, IOException, SwapException {
+        if (!isMets(process)) {
+            if (!process.writeMetadataFile(ff)) {
+                throw new WriteException("The metadata file of the process could not be written.");
+            }
+            return;
+        }
+        Path metadataFile = Paths.get(process.getMetadataFilePath());
+        Path temporaryFile = metadataFile.resolveSibling(TEMPORARY_PREFIX + metadataFile.getFileName());
+        if (!ff.write(temporaryFile.toString()) || !Files.isRegularFile(temporaryFile) || Files.size(temporaryFile) == 0) {
+            throw new WriteException("The metadata file could not be written to " + temporaryFile + ", the old file was kept.");
+        }
+        int backups = numberOfBackups != null ? numberOfBackups : ConfigurationHelper.getInstance().getNumberOfMetaBackups();
+        Path anchorFile = getAnchorFile(metadataFile);
+        Path temporaryAnchorFile = getAnchorFile(temporaryFile);
+        rotateBackups(metadataFile, backups);
+        rotateBackups(anchorFile, backups);
+        move(temporaryFile, metadataFile);
+        if (Files.exists(temporaryAnchorFile)) {
+            move(temporaryAnchorFile, anchorFile);
+        }
+    }
+
+    /**
+     * sets the number of backups for the tests that run without the configuration of Goobi
+     *
+     * @param backups number of backups, null for the number of the Goobi configuration
+     */
+    static void setNumberOfBackups(Integer backups) {
+        numberOfBackups = backups;
+    }
+
+    /**
+     * @return true if the process uses METS as internal file format, this is the default of Goobi
+     */
+    private static boolean isMets(Process process) {
+        String format = process.getProjekt() == null ? null : process.getProjekt().getFileFormatInternal();
+        return StringUtils.isBlank(format) || "mets".equalsIgnoreCase(format);
+    }
+
+    /**
+     * @return the anchor file that is written next to the metadata file, e.g. 'meta_anchor.xml' for 'meta.xml'
+     */
+    static Path getAnchorFile(Path metadataFile) {
+        String name = metadataFile.getFileName().toString();
+        int extension = name.lastIndexOf('.');
+        String anchorName = extension < 0 ? name + ANCHOR_SUFFIX : name.substring(0, extension) + ANCHOR_SUFFIX + name.substring(extension);
+        return metadataFile.resolveSibling(anchorName);
+    }
+
+    /**
+     * keeps a copy of the file as backup 1, the older backups are renamed to the next number and the oldest one is replaced
+     */
+    private static void rotateBackups(Path file, int backups) throws IOException {
+        if (backups <= 0 || !Files.exists(file)) {
+            return;
+        }
+        for (int i = backups - 1; i > 0; i--) {
+            Path backup = getBackupFile(file, i);
+            if (Files.exists(backup)) {
+                Files.move(backup, getBackupFile(file, i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        // the file itself stays in place until the new version replaces it
+        Files.copy(file, getBackupFile(file, 1), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+    }
+
+    static Path getBackupFile(Path file, int number) {
+        return file.resolveSibling(file.getFileName() + "." + number);
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
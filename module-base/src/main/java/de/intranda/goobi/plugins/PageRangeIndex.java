@@ -0,0 +1,174 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+import de.intranda.goobi.plugins.DocumentManager.DocstructPageMapping;
+
+/**
+ * Interval index over the page ranges of existing structure elements. The ranges are sorted by their first page and stored as an implicit
+ * balanced tree that is augmented with the largest last page of each subtree. Exact matches with a tolerance are found with a binary search,
+ * containing and overlapping ranges with a tree search, all in O(log n + k) for k candidates.
+ */
+public class PageRangeIndex {
+
+    public enum MatchMode {
+        // first and last page must match, apart from the tolerance
+        EXACT,
+        // additionally, the smallest range that contains the pages is used
+        CONTAINMENT,
+        // additionally, the range with the largest overlap is used
+        OVERLAP
+    }
+
+    private final DocstructPageMapping[] ranges;
+    private final int[] maxLastPage;
+
+    public PageRangeIndex(Collection<DocstructPageMapping> mappings) {
+        this.ranges = mappings.toArray(new DocstructPageMapping[mappings.size()]);
+        Arrays.sort(ranges, Comparator.comparingInt(DocstructPageMapping::getFirstPage).thenComparingInt(DocstructPageMapping::getLastPage));
+        this.maxLastPage = new int[ranges.length];
+        buildMaxLastPage(0, ranges.length - 1);
+    }
+
+    public boolean isEmpty() {
+        return ranges.length == 0;
+    }
+
+    public int size() {
+        return ranges.length;
+    }
+
+    /**
+     * finds the range with the smallest deviation from the given pages
+     *
+     * @param firstPage
+     * @param lastPage
+     * @param tolerance maximum deviation of the first page and of the last page
+     * @param filter only ranges accepted by the filter are returned, may be null
+     * @return the best matching range or null
+     */
+    public DocstructPageMapping findExact(int firstPage, int lastPage, int tolerance, Predicate<DocstructPageMapping> filter) {
+        DocstructPageMapping best = null;
+        int bestDeviation = Integer.MAX_VALUE;
+        for (int i = lowerBound(firstPage - tolerance); i < ranges.length && ranges[i].getFirstPage() <= firstPage + tolerance; i++) {
+            DocstructPageMapping range = ranges[i];
+            int lastDeviation = Math.abs(range.getLastPage() - lastPage);
+            int deviation = Math.abs(range.getFirstPage() - firstPage) + lastDeviation;
+            if (lastDeviation <= tolerance && deviation < bestDeviation && accept(filter, range)) {
+                best = range;
+                bestDeviation = deviation;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * finds the smallest range that contains all given pages
+     *
+     * @return the smallest containing range or null
+     */
+    public DocstructPageMapping findContaining(int firstPage, int lastPage, Predicate<DocstructPageMapping> filter) {
+        DocstructPageMapping best = null;
+        for (DocstructPageMapping range : findOverlapping(firstPage, lastPage)) {
+            if (range.getFirstPage() <= firstPage && range.getLastPage() >= lastPage && accept(filter, range)
+                    && (best == null || length(range) < length(best))) {
+                best = range;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * finds the range with the largest overlap relative to the union of both ranges. If two ranges overlap equally, the one with the closer first
+     * page is used
+     *
+     * @return the closest overlapping range or null
+     */
+    public DocstructPageMapping findClosestOverlap(int firstPage, int lastPage, Predicate<DocstructPageMapping> filter) {
+        DocstructPageMapping best = null;
+        double bestScore = 0;
+        for (DocstructPageMapping range : findOverlapping(firstPage, lastPage)) {
+            if (!accept(filter, range)) {
+                continue;
+            }
+            int overlap = Math.min(range.getLastPage(), lastPage) - Math.max(range.getFirstPage(), firstPage) + 1;
+            int union = Math.max(range.getLastPage(), lastPage) - Math.min(range.getFirstPage(), firstPage) + 1;
+            double score = (double) overlap / union;
+            if (best == null || score > bestScore || (score == bestScore
+                    && Math.abs(range.getFirstPage() - firstPage) < Math.abs(best.getFirstPage() - firstPage))) {
+                best = range;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return all ranges that share at least one page with the given range, ordered by their first page
+     */
+    public List<DocstructPageMapping> findOverlapping(int firstPage, int lastPage) {
+        List<DocstructPageMapping> result = new ArrayList<>();
+        collectOverlapping(0, ranges.length - 1, firstPage, lastPage, result);
+        return result;
+    }
+
+    private void collectOverlapping(int low, int high, int firstPage, int lastPage, List<DocstructPageMapping> result) {
+        if (low > high) {
+            return;
+        }
+        int mid = (low + high) >>> 1;
+        if (maxLastPage[mid] < firstPage) {
+            // no range of this subtree reaches the first page
+            return;
+        }
+        collectOverlapping(low, mid - 1, firstPage, lastPage, result);
+        if (ranges[mid].getFirstPage() > lastPage) {
+            // all ranges of the right subtree start even later
+            return;
+        }
+        if (ranges[mid].getLastPage() >= firstPage) {
+            result.add(ranges[mid]);
+        }
+        collectOverlapping(mid + 1, high, firstPage, lastPage, result);
+    }
+
+    private int buildMaxLastPage(int low, int high) {
+        if (low > high) {
+            return Integer.MIN_VALUE;
+        }
+        int mid = (low + high) >>> 1;
+        int max = Math.max(ranges[mid].getLastPage(), Math.max(buildMaxLastPage(low, mid - 1), buildMaxLastPage(mid + 1, high)));
+        maxLastPage[mid] = max;
+        return max;
+    }
+
+    /**
+     * @return index of the first range with a first page greater than or equal to the given page
+     */
+    private int lowerBound(int page) {
+        int low = 0;
+        int high = ranges.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ranges[mid].getFirstPage() < page) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int length(DocstructPageMapping range) {
+        return range.getLastPage() - range.getFirstPage();
+    }
+
+    private static boolean accept(Predicate<DocstructPageMapping> filter, DocstructPageMapping range) {
+        return filter == null || filter.test(range);
+    }
+}
@@ -22,17 +22,27 @@ import java.io.File;
  */
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.configuration.HierarchicalConfiguration;
-import org.apache.commons.configuration.SubnodeConfiguration;
 import org.apache.commons.lang3.StringUtils;
 import org.goobi.beans.Step;
 import org.goobi.beans.Process;
@@ -46,12 +56,14 @@ import org.jdom2.JDOMException;
 import org.jdom2.xpath.XPathExpression;
 
 import de.intranda.goobi.plugins.model.Book;
-import de.sub.goobi.config.ConfigPlugins;
+import de.intranda.goobi.plugins.model.MetadataElement;
+import de.sub.goobi.helper.CloseStepHelper;
 import de.sub.goobi.helper.Helper;
-import de.sub.goobi.helper.StorageProvider;
 import de.sub.goobi.helper.StorageProviderInterface;
+import de.sub.goobi.helper.enums.StepStatus;
 import de.sub.goobi.helper.exceptions.DAOException;
 import de.sub.goobi.helper.exceptions.SwapException;
+import de.sub.goobi.persistence.managers.StepManager;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.Getter;
@@ -61,6 +73,8 @@ import net.xeoh.plugins.base.annotations.PluginImplementation;
 import ugh.dl.DigitalDocument;
 import ugh.dl.DocStruct;
 import ugh.dl.Fileformat;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataType;
 import ugh.dl.Prefs;
 import ugh.exceptions.MetadataTypeNotAllowedException;
 import ugh.exceptions.PreferencesException;
@@ -85,9 +99,16 @@ public class PdfBookInterchangeConvertStepPlugin implements IStepPluginVersion2
     private List<MetadataMapping> elementMetadata;
     private List<PersonMapping> publicationPersons;
     private List<PersonMapping> elementPersons;
-    private XPathExpression<Object> elementFpagePath;
-    private XPathExpression<Object> elementLPagePath;
-    private XPathExpression<Object> bookPartNodePath;
+    private StreamingBitsParser streamingParser;
+    private BitsEntityResolver entityResolver;
+    private MappingPlan plan;
+    // messages for the process log of the current execution
+    private ProcessLogBuffer logBuffer;
+    // progress of the asynchronous execution, null if the plugin runs synchronously
+    @Getter
+    private ConversionProgress progress;
+    // folders listed during the current execution
+    private Map<Path, FileFilter.FolderListing> folderListings = new HashMap<>();
 
     private int processId;
 
@@ -116,65 +137,88 @@ public class PdfBookInterchangeConvertStepPlugin implements IStepPluginVersion2
             }
         }
         if (this.processId > 0) {
-            Helper.addMessageToProcessLog(step.getProcessId(), logType, logmessage);
+            if (logBuffer != null) {
+                logBuffer.add(logType, message);
+            } else {
+                Helper.addMessageToProcessLog(step.getProcessId(), logType, logmessage);
+            }
         }
         return logmessage + " - ProcessID:" + this.processId;
     }
 
-    private List<MetadataMapping> getMetadataMapping(String mapping, SubnodeConfiguration myconfig) {
-        ArrayList<MetadataMapping> mappings = new ArrayList<>();
-        try {
-            List<HierarchicalConfiguration> mappingsNodes = myconfig.configurationsAt("//" + mapping + "/metadata");
-            for (HierarchicalConfiguration node : mappingsNodes) {
-                XPathExpression<Object> xpath =  BitsXmlReader.compileXpath(node.getString("@value", null));
-                String mets = node.getString("@field", null);
-                mappings.add(new MetadataMapping(xpath, mets));
-            }
-            //TODO catch no nocde exception    
-        } catch (NullPointerException ex) {
-            log("Invalid" + mapping + " - A mandatory argument is missing. Update the configuration file", LogType.ERROR);
-            return null;
+    /**
+     * logs a message that is summarized in the process log with all other messages of the same group, e.g. one message per unmatched element
+     * 
+     * @param group summary of the group, written with the number of messages
+     * @param message detailed message
+     * @param logType
+     */
+    public void log(String group, String message, LogType logType) {
+        if (logBuffer == null) {
+            log(message, logType, false);
+        } else if (this.processId > 0) {
+            logBuffer.add(logType, group, message);
         }
-        return mappings;
     }
 
-    private List<PersonMapping> getPersonMapping(String mapping, SubnodeConfiguration myconfig) {
-        ArrayList<PersonMapping> mappings = new ArrayList<>();
-        try {
-            List<HierarchicalConfiguration> mappingsNodes = myconfig.configurationsAt("//" + mapping + "/person");
-            for (HierarchicalConfiguration node : mappingsNodes) {
-                XPathExpression<Object> xpathFirstname = BitsXmlReader.compileXpath(node.getString("@firstname", null));
-                XPathExpression<Object> xpathLastname = BitsXmlReader.compileXpath(node.getString("@lastname", null));
-                String mets = node.getString("@role", null);
-                XPathExpression<Object> xpathNode = BitsXmlReader.compileXpath(node.getString("@xpathNode", null));
-                mappings.add(new PersonMapping(xpathFirstname, xpathLastname, mets, xpathNode));
+    /**
+     * writes the buffered messages to the process log, one entry per type, and, if configured, all detailed messages to a file in the process
+     * folder
+     */
+    private void flushLog() {
+        List<ProcessLogBuffer.Entry> entries = logBuffer.drain();
+        if (plan.isProcessLogDetails() && entries.stream().anyMatch(entry -> entry.getCount() > 1)) {
+            List<String> lines = new ArrayList<>();
+            for (ProcessLogBuffer.Entry entry : entries) {
+                for (String detail : entry.getDetails()) {
+                    lines.add(entry.getType() + ": " + detail);
+                }
             }
-            //TODO catch no node exception    
-        } catch (NullPointerException ex) {
-            log("Invalid" + mapping + " - A mandatory argument is missing. Update the configuration file", LogType.ERROR);
-            return null;
+            try {
+                Path detailFile = Paths.get(process.getProcessDataDirectory(), title + "_" + System.currentTimeMillis() + ".log");
+                Files.write(detailFile, lines, StandardCharsets.UTF_8);
+                log("All messages of the execution were written to " + detailFile, LogType.INFO, false);
+                entries.addAll(logBuffer.drain());
+            } catch (IOException | SwapException e) {
+                log.error("PdfBookInterchangeConvert: Could not write the messages to the process folder! ProcessID:" + this.processId, e);
+            }
+        }
+        logBuffer = null;
+        for (Map.Entry<LogType, String> message : ProcessLogBuffer.joinByType(entries, "PdfBookInterchangeConvert: ").entrySet()) {
+            Helper.addMessageToProcessLog(step.getProcessId(), message.getKey(), message.getValue());
         }
-        return mappings;
     }
 
     @Override
     public void initialize(Step step, String returnPath) {
+        initialize(step, returnPath, null, null);
+    }
+
+    /**
+     * initializes the plugin with a plan and preferences that were not read from the configuration of Goobi, used by the integration tests
+     * 
+     * @param step
+     * @param returnPath
+     * @param prefs preferences of the ruleset of the process, if null they are taken from the {@link PreferencesCache}
+     * @param plan compiled configuration, if null it is read for the project and step
+     */
+    void initialize(Step step, String returnPath, Prefs prefs, MappingPlan plan) {
         this.returnPath = returnPath;
         this.step = step;
         this.processId = this.step.getProcessId();
         this.process = this.step.getProzess();
-        this.prefs = process.getRegelsatz().getPreferences();
-        // read parameters from correct block in configuration file
-        SubnodeConfiguration myconfig = ConfigPlugins.getProjectAndStepConfig(title, step);
-        this.structureTypePdf = myconfig.getString("structureTypePdf", null);
-        this.structureTypeBits = myconfig.getString("structureTypeBits", null);
-        this.publicationMetadata = getMetadataMapping("publicationMapping", myconfig);
-        this.publicationPersons = getPersonMapping("publicationMapping", myconfig);
-        this.elementFpagePath = BitsXmlReader.compileXpath(myconfig.getString("//elementMapping/fpage/@xpath", null));
-        this.elementLPagePath = BitsXmlReader.compileXpath(myconfig.getString("//elementMapping/lpage/@xpath", null));
-        this.elementMetadata = getMetadataMapping("elementMapping", myconfig);
-        this.elementPersons = getPersonMapping("elementMapping", myconfig);
-        this.bookPartNodePath = BitsXmlReader.compileXpath( myconfig.getString("//elementMapping/@xpathNode"));
+        // read parameters from correct block in configuration file, the compiled configuration is shared by all plugin instances
+        this.plan = plan != null ? plan : MappingPlan.getPlan(title, step);
+        PreferencesCache.setMaxSize(this.plan.getRulesetCacheSize());
+        this.prefs = prefs != null ? prefs : PreferencesCache.getPreferences(process.getRegelsatz());
+        this.structureTypePdf = this.plan.getStructureTypePdf();
+        this.structureTypeBits = this.plan.getStructureTypeBits();
+        this.publicationMetadata = this.plan.getPublicationMetadata();
+        this.publicationPersons = this.plan.getPublicationPersons();
+        this.elementMetadata = this.plan.getElementMetadata();
+        this.elementPersons = this.plan.getElementPersons();
+        this.entityResolver = this.plan.getEntityResolver();
+        this.streamingParser = this.plan.getStreamingParser();
         log("Step plugin initialized", LogType.INFO);
     }
 
@@ -195,6 +239,9 @@ public class PdfBookInterchangeConvertStepPlugin implements IStepPluginVersion2
 
     @Override
     public String cancel() {
+        if (ConversionExecutor.cancel(this.processId)) {
+            log("The cancellation of the conversion was requested.", LogType.INFO);
+        }
         return "/uii" + returnPath;
     }
 
@@ -221,59 +268,229 @@ public class PdfBookInterchangeConvertStepPlugin implements IStepPluginVersion2
 
     @Override
     public PluginReturnValue run() {
+        if (plan.isAsynchronous()) {
+            if (ConversionExecutor.submit(this.processId, this::runAndCloseStep) == null) {
+                log("The conversion of this process is already running.", LogType.INFO);
+            } else {
+                log("The conversion was queued. The step is closed when it is finished.", LogType.INFO);
+            }
+            return PluginReturnValue.WAIT;
+        }
+        return runConversion();
+    }
+
+    /**
+     * runs the conversion of a process that was claimed in the {@link ConversionExecutor} and closes the step or sets it to error afterwards. A
+     * cancelled conversion opens the step again, so that it can be restarted. Used by the asynchronous and the batch conversion
+     */
+    void runAndCloseStep(ConversionProgress progress) {
+        this.progress = progress;
+        progress.setState(ConversionProgress.State.RUNNING);
+        PluginReturnValue ret;
+        try {
+            ret = runConversion();
+        } catch (CancellationException e) {
+            progress.setState(ConversionProgress.State.CANCELLED);
+            log("The conversion was cancelled. The metadata file was not changed, the step was opened again.", LogType.INFO);
+            saveStepStatus(StepStatus.OPEN);
+            return;
+        } catch (RuntimeException e) {
+            progress.setState(ConversionProgress.State.ERROR);
+            log("Error while executing the Plugin! The step was set to error.", LogType.ERROR, false);
+            log.error("PdfBookInterchangeConvert: Error in asynchronous conversion! ProcessID:" + this.processId, e);
+            saveStepStatus(StepStatus.ERROR);
+            return;
+        }
+        if (ret == PluginReturnValue.ERROR) {
+            progress.setState(ConversionProgress.State.ERROR);
+            saveStepStatus(StepStatus.ERROR);
+        } else {
+            progress.setState(ConversionProgress.State.FINISHED);
+            CloseStepHelper.closeStep(step, null);
+        }
+    }
+
+    private void saveStepStatus(StepStatus status) {
+        step.setBearbeitungsstatusEnum(status);
+        try {
+            saveStep(step);
+        } catch (DAOException e) {
+            log.error("PdfBookInterchangeConvert: Could not save the step status! ProcessID:" + this.processId, e);
+        }
+    }
+
+    /**
+     * saves the step in the database, replaced by the tests that run without the database of Goobi
+     */
+    void saveStep(Step step) throws DAOException {
+        StepManager.saveStep(step);
+    }
+
+    /**
+     * sets the phase of the asynchronous execution, if it was cancelled the conversion is stopped here
+     */
+    private void startPhase(ConversionMetrics.Phase phase) {
+        if (progress != null) {
+            progress.checkCancelled();
+            progress.setPhase(phase);
+        }
+    }
+
+    /**
+     * runs the conversion in the calling thread, regardless of the asynchronous setting
+     */
+    PluginReturnValue runConversion() {
+        // the messages of the execution are written to the process log at once
+        logBuffer = new ProcessLogBuffer();
+        try {
+            return convert();
+        } finally {
+            flushLog();
+            folderListings.clear();
+        }
+    }
+
+    /**
+     * lists the folder once per execution
+     */
+    private FileFilter.FolderListing getFolderListing(Path folder) {
+        return folderListings.computeIfAbsent(folder, FileFilter::listFolder);
+    }
+
+    private PluginReturnValue convert() {
 
         boolean successful = true;
+        ConversionMetrics metrics = ConversionMetrics.getInstance();
+        metrics.countConversion();
+        // the plan is shared by all executions, each of them reports the errors of the configuration
+        for (MappingPlan.ConfigMessage message : plan.getMessages()) {
+            log(message.getMessage(), message.getType());
+        }
+        if (!plan.isComplete()) {
+            log("The mapping can not be used, the XML-File was not converted.", LogType.ERROR);
+            metrics.countError();
+            return PluginReturnValue.ERROR;
+        }
+        long phaseStart = System.nanoTime();
+        startPhase(ConversionMetrics.Phase.LIST_FILES);
         // find source folder with pdf and xml
         Path sourceFolder = null;
         try {
             sourceFolder = Paths.get(this.process.getSourceDirectory());
 
-            StorageProviderInterface SPI = StorageProvider.getInstance();
+            StorageProviderInterface SPI = FileFilter.getStorageProvider();
             Path masterFolder = Paths.get(process.getImagesOrigDirectory(false));
             if (!SPI.isFileExists(masterFolder)) {
                 SPI.createDirectories(masterFolder);
             }
 
-            // TODO check for emtpy list
-            Path xmlBitsFile = null;            
-            List<Path> xmlFiles = FileFilter.getXmlFiles(sourceFolder);
-            if (xmlFiles.size() == 1) {
-                xmlBitsFile = xmlFiles.get(0);
+            // plain, gzip compressed or zipped, one file per volume of a multi-volume work
+            List<Path> xmlFiles = new ArrayList<>();
+            for (Path file : getFolderListing(sourceFolder).getBitsFiles()) {
+                if (BitsSource.isBitsFile(file)) {
+                    xmlFiles.add(file);
+                } else {
+                    log("The zip package " + file.getFileName() + " contains no XML-File and was ignored.", LogType.INFO);
+                }
             }
-
-            if (xmlBitsFile == null) {
-                log("No or more than one XML-File in the source folder!", LogType.ERROR);
+            if (xmlFiles.isEmpty()) {
+                log("No XML-File in the source folder!", LogType.ERROR);
+                metrics.countError();
                 return PluginReturnValue.ERROR;
             }
-            
-            // TODO remove !!
-            List<Path> imageFiles = FileFilter.getImageFiles(masterFolder);
+
+            List<Path> imageFiles = getFolderListing(masterFolder).getImageFiles();
+            MappingPlan.PageSource pageSource = plan.getPageSource();
+            if (pageSource == MappingPlan.PageSource.PDF || (pageSource == MappingPlan.PageSource.AUTO && imageFiles.isEmpty())) {
+                // the pages can be linked before the images were generated from the pdf file
+                imageFiles = getPdfPageFiles(sourceFolder, masterFolder);
+                if (imageFiles == null) {
+                    metrics.countError();
+                    return PluginReturnValue.ERROR;
+                }
+            }
             if (imageFiles.size()<1) {
                 log("No image files in the master folder!", LogType.ERROR);
+                metrics.countError();
                 return PluginReturnValue.ERROR;
             }
+            phaseStart = metrics.record(ConversionMetrics.Phase.LIST_FILES, phaseStart);
+            startPhase(ConversionMetrics.Phase.READ_METADATA);
             
-            Fileformat ff = process.readMetadataFile();
+            Fileformat ff = MetadataFile.read(process, this.prefs);
             DigitalDocument digitalDocument = ff.getDigitalDocument();
-            DocStruct baseDocStruct = digitalDocument.getLogicalDocStruct();
-
-            if (baseDocStruct.getType().isAnchor()) {
-                baseDocStruct = baseDocStruct.getAllChildren().get(0);
+            DocStruct topStruct = digitalDocument.getLogicalDocStruct();
+            boolean multiVolume = xmlFiles.size() > 1;
+            if (multiVolume && !topStruct.getType().isAnchor()) {
+                log("More than one XML-File in the source folder, but the process is no multi-volume work!", LogType.ERROR);
+                metrics.countError();
+                return PluginReturnValue.ERROR;
+            }
+            MetadataType checksumType = getChecksumType();
+
+            // a repeated execution with the same file and configuration has nothing to do. If the volume of the file is known, this is checked
+            // before the file is parsed
+            DocumentManager singleManager = null;
+            DocStruct singleVolume = multiVolume ? null : getSingleVolume(topStruct);
+            if (singleVolume != null) {
+                singleManager = createManager(ff, singleVolume, imageFiles, xmlFiles.get(0), checksumType);
+                if (singleManager.isUnchanged()) {
+                    log("The XML-File and the configuration were not changed since the last execution. The metadata file was not changed.",
+                            LogType.INFO);
+                    return PluginReturnValue.FINISH;
+                }
+            }
+            phaseStart = metrics.record(ConversionMetrics.Phase.READ_METADATA, phaseStart);
+
+            // read values from xml, the files of a multi-volume work are read in parallel
+            startPhase(ConversionMetrics.Phase.PARSE_BITS);
+            List<Book> books = readBooks(xmlFiles);
+            phaseStart = metrics.record(ConversionMetrics.Phase.PARSE_BITS, phaseStart);
+            for (int i = 0; i < xmlFiles.size(); i++) {
+                metrics.countBytesParsed(Files.size(xmlFiles.get(i)));
+                metrics.countBookParts(books.get(i));
             }
-                        
-            // read values from xml
-            BitsXmlReader reader = new BitsXmlReader(xmlBitsFile, this.bookPartNodePath, this);         
-            Book book = reader.readXml(publicationMetadata, publicationPersons, elementMetadata, elementPersons, elementFpagePath, elementLPagePath);
           
             //map Values from XML to existing TOC-structure
-            DocumentManager manager = new DocumentManager(ff, structureTypeBits, structureTypePdf, imageFiles, this.prefs, this);
-            ff = manager.mapBookToMets(book);
+            startPhase(ConversionMetrics.Phase.MAP_TO_METS);
+            if (progress != null) {
+                progress.setBookPartsTotal(progress.getBookPartsRead());
+            }
+            Set<DocStruct> mappedVolumes = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int i = 0; i < xmlFiles.size(); i++) {
+                String fileName = xmlFiles.get(i).getFileName().toString();
+                DocumentManager manager = singleManager;
+                if (manager == null) {
+                    DocStruct volume = findVolume(topStruct, books.get(i));
+                    if (volume == null || !mappedVolumes.add(volume)) {
+                        log("Could not find a volume for the XML-File " + fileName + ". Please check the " + plan.getVolumeMatching()
+                                + " of the volumes.", LogType.ERROR);
+                        successful = false;
+                        continue;
+                    }
+                    manager = createManager(ff, volume, imageFiles, xmlFiles.get(i), checksumType);
+                    if (manager.isUnchanged()) {
+                        log("The XML-File " + fileName + " and the configuration were not changed since the last execution.", LogType.INFO);
+                        continue;
+                    }
+                    if (multiVolume) {
+                        // the page numbers of the book parts start with 1 in every volume
+                        manager.setPageOffset(plan.getPageOffset() + Math.max(0, manager.getFirstLinkedPage() - 1));
+                    }
+                }
+                manager.setProgress(progress);
+                ff = manager.mapBookToMets(books.get(i));
+                metrics.countMapping(manager);
+            }
+            phaseStart = metrics.record(ConversionMetrics.Phase.MAP_TO_METS, phaseStart);
 
-            // Book book = reader.readXml(publicationMetadata, publicationPersons, elementMetadata, elementPersons, elementFpagePath, elementLPagePath);
-            process.writeMetadataFile(ff);
+            startPhase(ConversionMetrics.Phase.WRITE_METADATA);
+            MetadataFile.write(process, ff);
+            metrics.record(ConversionMetrics.Phase.WRITE_METADATA, phaseStart);
         } catch (IllegalArgumentException | IOException | SwapException | DAOException |PreferencesException |ReadException| WriteException | JDOMException  ex) {
             log("PdfBookInterchangeConvert: Error while executing the Plugin!",LogType.ERROR,false);
             log.error("PdfBookInterchangeConvert: Error while executing the Plugin! ProcessID:" + this.processId, ex);
+            metrics.countError();
             return PluginReturnValue.ERROR;
             
         } 
@@ -284,9 +501,192 @@ public class PdfBookInterchangeConvertStepPlugin implements IStepPluginVersion2
         return PluginReturnValue.FINISH;
     }
 
+    /**
+     * @return the metadata type of the checksum or null if repeated executions are not recognized
+     */
+    private MetadataType getChecksumType() {
+        if (plan.getChecksumMetadata() == null) {
+            return null;
+        }
+        MetadataType checksumType = this.prefs.getMetadataTypeByName(plan.getChecksumMetadata());
+        if (checksumType == null) {
+            log("The metadata type '" + plan.getChecksumMetadata()
+                    + "' for the checksum is not defined in the ruleset. Repeated executions will convert the XML-File again.", LogType.INFO,
+                    false);
+        }
+        return checksumType;
+    }
+
+    private DocumentManager createManager(Fileformat ff, DocStruct target, List<Path> imageFiles, Path xmlBitsFile, MetadataType checksumType)
+            throws PreferencesException, IOException {
+        DocumentManager manager = new DocumentManager(ff, target, structureTypeBits, structureTypePdf, imageFiles, this.prefs, this);
+        manager.setPageMatchingTolerance(plan.getPageMatchingTolerance());
+        manager.setPageMatchingMode(plan.getPageMatchingMode());
+        manager.setPageOffset(plan.getPageOffset());
+        manager.setPageOffsetDetection(plan.isPageOffsetDetection());
+        if (plan.getTitleMatchingField() != null) {
+            manager.setTitleMatching(plan.getTitleMatchingField(), plan.getTitleMatchingThreshold());
+        }
+        manager.setMappedTypes(getMappedTypes(publicationMetadata, publicationPersons), getMappedTypes(elementMetadata, elementPersons));
+        if (checksumType != null) {
+            manager.setChecksum(checksumType, BitsChecksum.compute(xmlBitsFile, plan.getFingerprint()));
+        }
+        return manager;
+    }
+
+    /**
+     * @return the publication a single BITS file belongs to, if it is known without reading the file, otherwise null
+     */
+    private static DocStruct getSingleVolume(DocStruct topStruct) {
+        if (!topStruct.getType().isAnchor()) {
+            return topStruct;
+        }
+        List<DocStruct> volumes = topStruct.getAllChildren();
+        return volumes != null && volumes.size() == 1 ? volumes.get(0) : null;
+    }
+
+    /**
+     * searches the volume of the book by the configured metadata, e.g. the ISBN or the volume number. Values are compared ignoring case,
+     * spaces and hyphens
+     *
+     * @return the volume or null if no volume matches
+     */
+    private DocStruct findVolume(DocStruct topStruct, Book book) {
+        if (!topStruct.getType().isAnchor()) {
+            return topStruct;
+        }
+        List<DocStruct> volumes = topStruct.getAllChildren();
+        if (volumes == null || volumes.isEmpty()) {
+            return null;
+        }
+        for (String field : plan.getVolumeMatching()) {
+            MetadataType type = this.prefs.getMetadataTypeByName(field);
+            if (type == null) {
+                continue;
+            }
+            Set<String> values = new HashSet<>();
+            for (MetadataElement element : book.getMetadata().getMetadata()) {
+                if (field.equals(element.getMets())) {
+                    values.add(normalizeIdentifier(element.getValue()));
+                }
+            }
+            if (values.isEmpty()) {
+                continue;
+            }
+            for (DocStruct volume : volumes) {
+                List<? extends Metadata> volumeValues = volume.getAllMetadataByType(type);
+                if (volumeValues != null && volumeValues.stream().anyMatch(md -> values.contains(normalizeIdentifier(md.getValue())))) {
+                    return volume;
+                }
+            }
+        }
+        return volumes.size() == 1 ? volumes.get(0) : null;
+    }
+
+    private static String normalizeIdentifier(String value) {
+        return value == null ? "" : value.replaceAll("[\\s-]", "").toLowerCase();
+    }
+
+    /**
+     * reads the BITS files, several files are read in parallel. The books are returned in the order of the files
+     */
+    private List<Book> readBooks(List<Path> xmlFiles) throws IOException, JDOMException {
+        if (xmlFiles.size() == 1) {
+            return Collections.singletonList(readBook(xmlFiles.get(0)));
+        }
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(xmlFiles.size(), Runtime.getRuntime().availableProcessors()), runnable -> {
+            Thread thread = new Thread(runnable, "bits-volume-reader-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Book>> futures = new ArrayList<>();
+            for (Path xmlFile : xmlFiles) {
+                futures.add(executor.submit(() -> readBook(xmlFile)));
+            }
+            List<Book> books = new ArrayList<>();
+            for (Future<Book> future : futures) {
+                books.add(future.get());
+            }
+            return books;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Reading the XML-Files was interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof JDOMException) {
+                throw (JDOMException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Book readBook(Path xmlBitsFile) throws JDOMException, IOException {
+        // compiled xpath expressions are not thread safe, every file is read with its own copies
+        BitsXmlReader reader = new BitsXmlReader(xmlBitsFile, plan.getBookPartNodePath(), this, this.streamingParser, this.entityResolver);
+        reader.setHierarchical(plan.isHierarchicalBookParts());
+        reader.setProgress(progress);
+        reader.setParallelism(plan.getReaderParallelism());
+        return reader.readXml(plan.getPublicationMetadata(), plan.getPublicationPersons(), plan.getElementMetadata(), plan.getElementPersons(),
+                plan.getElementFpagePath(), plan.getElementLPagePath());
+    }
+
+    /**
+     * counts the pages of the pdf file in the source or import folder and names their image files in the master folder with the configured
+     * pattern
+     *
+     * @return the image files of the pages, or null if there is not exactly one pdf file or it could not be read
+     */
+    private List<Path> getPdfPageFiles(Path sourceFolder, Path masterFolder) throws IOException, SwapException {
+        List<Path> pdfFiles = getFolderListing(sourceFolder).getPdfFiles();
+        if (pdfFiles.isEmpty()) {
+            pdfFiles = getFolderListing(Paths.get(process.getImportDirectory())).getPdfFiles();
+        }
+        if (pdfFiles.size() != 1) {
+            log("No or more than one PDF-File in the source and import folder!", LogType.ERROR);
+            return null;
+        }
+        int pageCount;
+        try {
+            pageCount = PdfPageCounter.countPages(pdfFiles.get(0));
+        } catch (IOException e) {
+            log("Could not read the page count of the PDF-File " + pdfFiles.get(0).getFileName() + "!", LogType.ERROR);
+            log.error("PdfBookInterchangeConvert: Could not read the page count of the PDF-File! ProcessID:" + this.processId, e);
+            return null;
+        }
+        List<Path> imageFiles = new ArrayList<>(pageCount);
+        for (int page = 1; page <= pageCount; page++) {
+            imageFiles.add(masterFolder.resolve(String.format(plan.getPdfPageFileNames(), page)));
+        }
+        return imageFiles;
+    }
+
+    /**
+     * @return the metadata types and person roles that are written by the mappings
+     */
+    private static Set<String> getMappedTypes(List<MetadataMapping> metadataMappings, List<PersonMapping> personMappings) {
+        Set<String> types = new HashSet<>();
+        if (metadataMappings != null) {
+            metadataMappings.forEach(mapping -> types.add(mapping.getMets()));
+        }
+        if (personMappings != null) {
+            personMappings.forEach(mapping -> types.add(mapping.getMets()));
+        }
+        return types;
+    }
+
     @Data
     @AllArgsConstructor
-    public class MetadataMapping {
+    public static class MetadataMapping {
         @NonNull
         private XPathExpression<Object> xpath;
         @NonNull
@@ -295,7 +695,7 @@ public class PdfBookInterchangeConvertStepPlugin implements IStepPluginVersion2
 
     @Data
     @AllArgsConstructor
-    public class PersonMapping {
+    public static class PersonMapping {
         @NonNull
         private XPathExpression<Object> xpathFirstname;
         @NonNull
@@ -0,0 +1,73 @@
+package de.intranda.goobi.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * Reads the number of pages of a PDF file from its page tree without rendering the document. PDFBox parses the objects lazily and follows the
+ * cross reference data of all incremental updates, buffered data is kept in a temporary file instead of the heap. PDFBox is provided by Goobi,
+ * the file is loaded with the API of PDFBox 3 or, if Goobi still ships PDFBox 2, with the API of that version.
+ */
+public final class PdfPageCounter {
+
+    private static final DocumentLoader LOADER = createLoader();
+
+    private PdfPageCounter() {
+    }
+
+    /**
+     * @param pdfFile
+     * @return the number of pages of the current revision of the file
+     * @throws IOException if the file can not be read, e.g. if it is damaged beyond repair or protected by a user password
+     */
+    public static int countPages(Path pdfFile) throws IOException {
+        try (PDDocument document = LOADER.load(pdfFile.toFile())) {
+            return document.getNumberOfPages();
+        }
+    }
+
+    private static DocumentLoader createLoader() {
+        try {
+            // PDFBox 3: Loader.loadPDF(File, StreamCacheCreateFunction)
+            Class<?> cacheFunction = Class.forName("org.apache.pdfbox.io.RandomAccessStreamCache$StreamCacheCreateFunction");
+            Object tempFileOnly = Class.forName("org.apache.pdfbox.io.IOUtils").getMethod("createTempFileOnlyStreamCache").invoke(null);
+            Method loadPdf = Class.forName("org.apache.pdfbox.Loader").getMethod("loadPDF", File.class, cacheFunction);
+            return file -> load(loadPdf, file, tempFileOnly);
+        } catch (ReflectiveOperationException e) {
+            // PDFBox 2: PDDocument.load(File, MemoryUsageSetting)
+        }
+        try {
+            Class<?> memoryUsage = Class.forName("org.apache.pdfbox.io.MemoryUsageSetting");
+            Object tempFileOnly = memoryUsage.getMethod("setupTempFileOnly").invoke(null);
+            Method load = PDDocument.class.getMethod("load", File.class, memoryUsage);
+            return file -> load(load, file, tempFileOnly);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("The PDFBox version provided by Goobi is not supported", e);
+        }
+    }
+
+    private static PDDocument load(Method method, File file, Object cache) throws IOException {
+        try {
+            return (PDDocument) method.invoke(null, file, cache);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface DocumentLoader {
+        PDDocument load(File file) throws IOException;
+    }
+}
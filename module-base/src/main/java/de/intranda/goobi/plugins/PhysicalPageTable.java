@@ -0,0 +1,97 @@
+package de.intranda.goobi.plugins;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataType;
+
+/**
+ * Table of the physical pages of a document, indexed by the physical page number. It is built in one pass over the physical structure and holds
+ * the page structure element and the image file name of each page.
+ */
+public class PhysicalPageTable {
+
+    private DocStruct[] pages;
+    private String[] fileNames;
+    private final Map<DocStruct, Integer> pageNumbers = new IdentityHashMap<>();
+
+    /**
+     *
+     * @param physical physical structure element of the document
+     * @param physPageNumberType metadata type of the physical page number
+     * @param imageFiles sorted image files, the first file belongs to page 1
+     */
+    public PhysicalPageTable(DocStruct physical, MetadataType physPageNumberType, List<Path> imageFiles) {
+        int size = imageFiles.size() + 1;
+        this.pages = new DocStruct[size];
+        this.fileNames = new String[size];
+        for (int i = 0; i < imageFiles.size(); i++) {
+            fileNames[i + 1] = imageFiles.get(i).getFileName().toString();
+        }
+        if (physical != null && physical.getAllChildren() != null) {
+            for (DocStruct page : physical.getAllChildren()) {
+                List<? extends Metadata> physPage = page.getAllMetadataByType(physPageNumberType);
+                if (physPage == null || physPage.isEmpty() || !StringUtils.isNumeric(physPage.get(0).getValue())) {
+                    continue;
+                }
+                setPage(Integer.parseInt(physPage.get(0).getValue()), page);
+            }
+        }
+    }
+
+    /**
+     * @return the page structure element with the physical page number or null if the page does not exist
+     */
+    public DocStruct getPage(int pageNumber) {
+        return pageNumber > 0 && pageNumber < pages.length ? pages[pageNumber] : null;
+    }
+
+    /**
+     * @return the physical page number of the page structure element or -1 if it is not part of the physical structure
+     */
+    public int getPageNumber(DocStruct page) {
+        Integer pageNumber = pageNumbers.get(page);
+        return pageNumber == null ? -1 : pageNumber;
+    }
+
+    /**
+     * @return the name of the image file of the page or null if there is no image for this page
+     */
+    public String getFileName(int pageNumber) {
+        return pageNumber > 0 && pageNumber < fileNames.length ? fileNames[pageNumber] : null;
+    }
+
+    /**
+     * @return the highest page number that has an image or a page structure element
+     */
+    public int getPageCount() {
+        int count = pages.length - 1;
+        while (count > 0 && pages[count] == null && fileNames[count] == null) {
+            count--;
+        }
+        return count;
+    }
+
+    /**
+     * registers a page structure element under the given physical page number
+     */
+    public void setPage(int pageNumber, DocStruct page) {
+        if (pageNumber <= 0) {
+            return;
+        }
+        if (pageNumber >= pages.length) {
+            int size = Math.max(pageNumber + 1, pages.length * 2);
+            pages = Arrays.copyOf(pages, size);
+            fileNames = Arrays.copyOf(fileNames, size);
+        }
+        pages[pageNumber] = page;
+        pageNumbers.put(page, pageNumber);
+    }
+}
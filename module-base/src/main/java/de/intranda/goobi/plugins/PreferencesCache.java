@@ -0,0 +1,100 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.goobi.beans.Ruleset;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.log4j.Log4j2;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+
+/**
+ * Keeps the parsed preferences of the most recently used rulesets, so that large rulesets are not parsed again for every process. The entries
+ * are keyed by the ruleset file and reloaded when the file is modified. If the cache is full, the least recently used ruleset is removed.
+ */
+@Log4j2
+public class PreferencesCache {
+
+    public static final int DEFAULT_MAX_SIZE = 10;
+
+    private static int maxSize = DEFAULT_MAX_SIZE;
+    // folder of the ruleset files, null for the folder of the Goobi configuration
+    private static Path rulesetFolder;
+
+    private static final Map<Path, CachedPreferences> CACHE = new LinkedHashMap<Path, CachedPreferences>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, CachedPreferences> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    private PreferencesCache() {
+    }
+
+    /**
+     * returns the preferences of the ruleset, they are read from the ruleset file if they are not cached yet or if the file was modified
+     *
+     * @param ruleset
+     * @return the preferences of the ruleset
+     */
+    public static synchronized Prefs getPreferences(Ruleset ruleset) {
+        Path folder = rulesetFolder != null ? rulesetFolder : Paths.get(ConfigurationHelper.getInstance().getRulesetFolder());
+        Path rulesetFile = folder.resolve(ruleset.getDatei());
+        long lastModified;
+        try {
+            lastModified = Files.getLastModifiedTime(rulesetFile).toMillis();
+        } catch (IOException e) {
+            // let goobi report the missing ruleset
+            return ruleset.getPreferences();
+        }
+        CachedPreferences cached = CACHE.get(rulesetFile);
+        if (cached == null || cached.getLastModified() != lastModified) {
+            Prefs prefs = new Prefs();
+            try {
+                prefs.loadPrefs(rulesetFile.toString());
+            } catch (PreferencesException e) {
+                log.error("PdfBookInterchangeConvert: Could not read ruleset " + rulesetFile, e);
+                return ruleset.getPreferences();
+            }
+            cached = new CachedPreferences(prefs, lastModified);
+            CACHE.put(rulesetFile, cached);
+        }
+        return cached.getPrefs();
+    }
+
+    /**
+     * sets the maximum number of cached rulesets
+     *
+     * @param size
+     */
+    public static synchronized void setMaxSize(int size) {
+        maxSize = Math.max(1, size);
+    }
+
+    /**
+     * sets the folder of the ruleset files for the tests that run without the configuration of Goobi and removes all cached rulesets
+     *
+     * @param folder folder of the ruleset files, null for the folder of the Goobi configuration
+     */
+    static synchronized void setRulesetFolder(Path folder) {
+        rulesetFolder = folder;
+        CACHE.clear();
+    }
+
+    @Data
+    @AllArgsConstructor
+    private static class CachedPreferences {
+        private Prefs prefs;
+        private long lastModified;
+    }
+}
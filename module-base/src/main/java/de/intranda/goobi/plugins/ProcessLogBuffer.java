@@ -0,0 +1,112 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.goobi.production.enums.LogType;
+
+import lombok.Getter;
+
+/**
+ * Collects the messages for the process log during one execution of the plugin. Equal messages are written only once with their number of
+ * occurrences, messages of the same group (e.g. all elements created without a match) are summarized in one entry. The entries are written at
+ * the end of the execution, all entries of the same type with one insert into the process log.
+ */
+public class ProcessLogBuffer {
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * adds a message
+     *
+     * @param type
+     * @param message
+     */
+    public synchronized void add(LogType type, String message) {
+        entries.computeIfAbsent(type + "|" + message, key -> new Entry(type, null, message)).add(message);
+    }
+
+    /**
+     * adds a message that is summarized with all other messages of the group
+     *
+     * @param type
+     * @param group summary of the group, it is written with the number of messages, e.g. "elements created without match"
+     * @param message detailed message, written as it is if it is the only message of the group
+     */
+    public synchronized void add(LogType type, String group, String message) {
+        entries.computeIfAbsent(type + "|" + group, key -> new Entry(type, group, message)).add(message);
+    }
+
+    public synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * @return the entries in the order of their first message, the buffer is empty afterwards
+     */
+    public synchronized List<Entry> drain() {
+        List<Entry> result = new ArrayList<>(entries.values());
+        entries.clear();
+        return result;
+    }
+
+    /**
+     * joins the messages of the entries with the same type, each of the returned messages is written to the process log at once
+     *
+     * @param entries entries returned by {@link #drain()}
+     * @param prefix prefix of every message
+     * @return one message per type, in the order of the first entry of the type
+     */
+    public static Map<LogType, String> joinByType(List<Entry> entries, String prefix) {
+        Map<LogType, StringBuilder> messages = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            StringBuilder message = messages.get(entry.getType());
+            if (message == null) {
+                messages.put(entry.getType(), new StringBuilder(prefix).append(entry.getMessage()));
+            } else {
+                message.append('\n').append(prefix).append(entry.getMessage());
+            }
+        }
+        Map<LogType, String> result = new LinkedHashMap<>();
+        messages.forEach((type, message) -> result.put(type, message.toString()));
+        return result;
+    }
+
+    public static class Entry {
+        @Getter
+        private final LogType type;
+        private final String group;
+        private final String firstMessage;
+        @Getter
+        private int count = 0;
+        @Getter
+        private final List<String> details = new ArrayList<>();
+
+        private Entry(LogType type, String group, String firstMessage) {
+            this.type = type;
+            this.group = group;
+            this.firstMessage = firstMessage;
+        }
+
+        private void add(String message) {
+            count++;
+            if (group != null) {
+                details.add(message);
+            }
+        }
+
+        /**
+         * @return the message for the process log
+         */
+        public String getMessage() {
+            if (count == 1) {
+                return firstMessage;
+            } else if (group == null) {
+                return firstMessage + " (" + count + " times)";
+            }
+            return count + " " + group;
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jdom2.Attribute;
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.Namespace;
+import org.jdom2.Text;
+
+/**
+ * Streams a BITS file with StAX and builds a pruned JDOM document. Only the subtrees addressed by the configured xpath expressions are built
+ * completely, their ancestors are kept as empty skeleton elements and everything else (e.g. the body text of the book parts) is skipped. The
+ * configured xpath expressions return the same results on the pruned document as on the complete one.
+ */
+public class StreamingBitsParser {
+
+    private static final Pattern PLAIN_STEP = Pattern.compile("[A-Za-z_][A-Za-z0-9_.\\-]*");
+    private static final String[] UNSUPPORTED_AXES = { "..", "parent::", "ancestor", "preceding", "following" };
+    // absolute location paths or the id function inside of predicates and function arguments address the whole document
+    private static final Pattern NESTED_DOCUMENT_PATH = Pattern.compile("[\\[(,=<>!|]\\s*/|\\s(and|or|div|mod)\\s+/|(^|[^\\w.\\-])id\\s*\\(");
+    private static final Pattern STRING_LITERAL = Pattern.compile("'[^']*'|\"[^\"]*\"");
+
+    private final List<CapturePath> capturePaths;
+
+    private StreamingBitsParser(List<CapturePath> capturePaths) {
+        this.capturePaths = capturePaths;
+    }
+
+    /**
+     * Creates a parser that keeps all subtrees needed to evaluate the given xpath expressions
+     *
+     * @param expressions xpath expressions that will be evaluated on the pruned document
+     * @return the parser or null if at least one of the expressions can not be used to prune the document
+     */
+    public static StreamingBitsParser create(Collection<String> expressions) {
+        List<CapturePath> paths = new ArrayList<>();
+        for (String expression : expressions) {
+            if (StringUtils.isBlank(expression)) {
+                return null;
+            }
+            for (String alternative : splitTopLevel(expression.trim(), '|')) {
+                CapturePath path = analyze(alternative.trim());
+                if (path == null) {
+                    return null;
+                }
+                paths.add(path);
+            }
+        }
+        return paths.isEmpty() ? null : new StreamingBitsParser(paths);
+    }
+
+    /**
+     * @return true if the xpath step is a plain element name without namespace prefix, axis or predicate
+     */
+    static boolean isPlainName(String step) {
+        return step != null && PLAIN_STEP.matcher(step).matches();
+    }
+
+    /**
+     * Checks an expression that is evaluated relative to an element of a captured subtree, e.g. the metadata of a book part or the name of a
+     * person. Such an expression returns the same result on the pruned document only if it does not leave the subtree of its context element
+     *
+     * @return true if the expression only addresses the context element and its descendants
+     */
+    public static boolean isInsideSubtree(String expression) {
+        if (StringUtils.isBlank(expression)) {
+            return false;
+        }
+        for (String alternative : splitTopLevel(expression.trim(), '|')) {
+            if (alternative.trim().startsWith("/") || leavesSubtree(alternative)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the expression contains an axis or a path that can address elements outside of the subtree of its context element
+     */
+    private static boolean leavesSubtree(String expression) {
+        String withoutLiterals = STRING_LITERAL.matcher(expression).replaceAll("''");
+        for (String axis : UNSUPPORTED_AXES) {
+            if (withoutLiterals.contains(axis)) {
+                return true;
+            }
+        }
+        return NESTED_DOCUMENT_PATH.matcher(withoutLiterals).find();
+    }
+
+    /**
+     * Reads the given file and returns the pruned document
+     *
+     * @param xmlFile BITS file
+     * @param entityResolver resolver for the DTD and external entities, may be null
+     * @return document with the root element, the captured subtrees and their ancestors
+     */
+    public Document parse(Path xmlFile, XMLResolver entityResolver) throws JDOMException, IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(xmlFile))) {
+            return parse(in, xmlFile.toUri().toString(), entityResolver);
+        }
+    }
+
+    /**
+     * Reads the given stream and returns the pruned document
+     *
+     * @param in content of the BITS file, it is not closed
+     * @param systemId system id of the BITS file, relative entities are resolved against it
+     * @param entityResolver resolver for the DTD and external entities, may be null
+     * @return document with the root element, the captured subtrees and their ancestors
+     */
+    public Document parse(InputStream in, String systemId, XMLResolver entityResolver) throws JDOMException, IOException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        if (entityResolver != null) {
+            factory.setXMLResolver(entityResolver);
+        }
+        // the bits-xml -files use doctype declaration and external general entities!
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, true);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, true);
+        factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+
+        XMLStreamReader reader = null;
+        try {
+            reader = factory.createXMLStreamReader(systemId, in);
+            return build(reader);
+        } catch (XMLStreamException e) {
+            throw new JDOMException("Could not read " + systemId + ": " + e.getMessage(), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // the stream is closed anyway
+                }
+            }
+        }
+    }
+
+    private Document build(XMLStreamReader reader) throws XMLStreamException {
+        Document document = new Document();
+        List<Frame> path = new ArrayList<>();
+        // element of the captured subtree that is currently open
+        Element current = null;
+        int captureDepth = -1;
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    Frame frame = new Frame(reader.getLocalName(), namespace(reader.getPrefix(), reader.getNamespaceURI()));
+                    path.add(frame);
+                    if (current != null) {
+                        Element element = createElement(reader, frame);
+                        current.addContent(element);
+                        current = element;
+                    } else {
+                        boolean captured = isCaptured(path);
+                        // the root element is always kept, even if it is not part of a captured subtree
+                        if (captured || path.size() == 1) {
+                            Element element = createElement(reader, frame);
+                            Element parent = materializeAncestors(path);
+                            if (parent == null) {
+                                document.setRootElement(element);
+                            } else {
+                                parent.addContent(element);
+                            }
+                            frame.element = element;
+                        }
+                        if (captured) {
+                            current = frame.element;
+                            captureDepth = path.size();
+                        }
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (current != null) {
+                        current = path.size() == captureDepth ? null : current.getParentElement();
+                    }
+                    path.remove(path.size() - 1);
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (current != null) {
+                        current.addContent(new Text(reader.getText()));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return document;
+    }
+
+    private boolean isCaptured(List<Frame> path) {
+        for (CapturePath capturePath : capturePaths) {
+            if (capturePath.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * creates the skeleton elements of all ancestors of the last element in the path that were not created yet
+     *
+     * @return the parent element of the last element in the path or null if the path contains the root element only
+     */
+    private Element materializeAncestors(List<Frame> path) {
+        Element parent = null;
+        for (int i = 0; i < path.size() - 1; i++) {
+            Frame frame = path.get(i);
+            if (frame.element == null) {
+                frame.element = new Element(frame.name, frame.namespace);
+                parent.addContent(frame.element);
+            }
+            parent = frame.element;
+        }
+        return parent;
+    }
+
+    private Element createElement(XMLStreamReader reader, Frame frame) {
+        Element element = new Element(frame.name, frame.namespace);
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String prefix = reader.getAttributePrefix(i);
+            String uri = reader.getAttributeNamespace(i);
+            String name = reader.getAttributeLocalName(i);
+            String value = reader.getAttributeValue(i);
+            if (StringUtils.isEmpty(uri)) {
+                element.setAttribute(new Attribute(name, value));
+            } else if ("xml".equals(prefix)) {
+                element.setAttribute(new Attribute(name, value, Namespace.XML_NAMESPACE));
+            } else {
+                element.setAttribute(new Attribute(name, value, namespace(prefix, uri)));
+            }
+        }
+        return element;
+    }
+
+    private static Namespace namespace(String prefix, String uri) {
+        return Namespace.getNamespace(prefix == null ? "" : prefix, uri == null ? "" : uri);
+    }
+
+    /**
+     * Determines the subtree that is needed to evaluate the expression. This is the element selected by the leading steps that consist of a plain
+     * element name only. The remaining steps are evaluated inside of this subtree later on.
+     *
+     * @return the path to the subtree or null if the expression can not be handled
+     */
+    private static CapturePath analyze(String expression) {
+        if (leavesSubtree(expression)) {
+            return null;
+        }
+        boolean anywhere;
+        String rest;
+        if (expression.startsWith(".//") || expression.startsWith("//")) {
+            anywhere = true;
+            rest = expression.substring(expression.indexOf("//") + 2);
+        } else if (expression.startsWith("./") || expression.startsWith("/")) {
+            anywhere = false;
+            rest = expression.substring(expression.indexOf('/') + 1);
+        } else {
+            anywhere = false;
+            rest = expression;
+        }
+        List<String> steps = new ArrayList<>();
+        for (String step : splitTopLevel(rest, '/')) {
+            if (!PLAIN_STEP.matcher(step).matches()) {
+                break;
+            }
+            steps.add(step);
+        }
+        if (steps.isEmpty()) {
+            return null;
+        }
+        return new CapturePath(anywhere, steps.toArray(new String[steps.size()]));
+    }
+
+    /**
+     * splits the expression at the given separator, ignoring separators inside of predicates, brackets and string literals
+     */
+    static List<String> splitTopLevel(String expression, char separator) {
+        List<String> parts = new ArrayList<>();
+        int depth = 0;
+        char quote = 0;
+        int start = 0;
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '[' || c == '(') {
+                depth++;
+            } else if (c == ']' || c == ')') {
+                depth--;
+            } else if (c == separator && depth == 0) {
+                parts.add(expression.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(expression.substring(start));
+        return parts;
+    }
+
+    private static class Frame {
+        private final String name;
+        private final Namespace namespace;
+        private Element element;
+
+        private Frame(String name, Namespace namespace) {
+            this.name = name;
+            this.namespace = namespace;
+        }
+    }
+
+    private static class CapturePath {
+        private final boolean anywhere;
+        private final String[] steps;
+
+        private CapturePath(boolean anywhere, String[] steps) {
+            this.anywhere = anywhere;
+            this.steps = steps;
+        }
+
+        private boolean matches(List<Frame> path) {
+            int depth = path.size();
+            if (depth < steps.length || (!anywhere && depth != steps.length)) {
+                return false;
+            }
+            int offset = depth - steps.length;
+            for (int i = steps.length - 1; i >= 0; i--) {
+                if (!steps[i].equals(path.get(offset + i).name)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
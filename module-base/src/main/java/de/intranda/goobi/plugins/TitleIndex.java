@@ -0,0 +1,220 @@
+package de.intranda.goobi.plugins;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import de.intranda.goobi.plugins.DocumentManager.DocstructPageMapping;
+
+/**
+ * Inverted index of the trigrams of the titles of structure elements, used to match book parts by their title if their pages do not match. The
+ * similarity of two titles is the dice coefficient of their trigrams. Only the elements that share one of the rarest trigrams of a title are
+ * compared with it, the number of trigrams a similar title must share follows from the threshold. Each element is matched only once.
+ */
+public class TitleIndex {
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern NO_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    // numbering of chapters and sections, e.g. "1.2" or "iv."
+    private static final Pattern NUMBERING = Pattern.compile("^\\s*(?:\\d+(?:\\.\\d+)*\\.?|[ivxlc]+\\.)\\s+");
+
+    private final double threshold;
+    private final Map<String, Integer> gramIds = new HashMap<>();
+    // element ids of each trigram
+    private int[][] postings = new int[64][];
+    private int[] postingSizes = new int[64];
+    private final List<DocstructPageMapping> elements = new ArrayList<>();
+    // sorted trigram ids of each element
+    private final List<int[]> elementGrams = new ArrayList<>();
+    private boolean[] matched = new boolean[0];
+    // marks the elements already compared with the current title
+    private int[] visited = new int[0];
+    private int query = 0;
+
+    /**
+     * @param threshold minimum similarity between 0 and 1 of matching titles
+     */
+    public TitleIndex(double threshold) {
+        this.threshold = Math.max(0.01, Math.min(1, threshold));
+    }
+
+    /**
+     * adds the element with the given title. Elements without a title are ignored
+     */
+    public void add(String title, DocstructPageMapping element) {
+        Set<String> grams = trigrams(title);
+        if (grams.isEmpty()) {
+            return;
+        }
+        int id = elements.size();
+        elements.add(element);
+        int[] ids = new int[grams.size()];
+        int i = 0;
+        for (String gram : grams) {
+            Integer gramId = gramIds.get(gram);
+            if (gramId == null) {
+                gramId = gramIds.size();
+                gramIds.put(gram, gramId);
+                if (gramId == postings.length) {
+                    postings = Arrays.copyOf(postings, gramId * 2);
+                    postingSizes = Arrays.copyOf(postingSizes, gramId * 2);
+                }
+                postings[gramId] = new int[4];
+            }
+            int size = postingSizes[gramId];
+            if (size == postings[gramId].length) {
+                postings[gramId] = Arrays.copyOf(postings[gramId], size * 2);
+            }
+            postings[gramId][size] = id;
+            postingSizes[gramId]++;
+            ids[i++] = gramId;
+        }
+        Arrays.sort(ids);
+        elementGrams.add(ids);
+    }
+
+    /**
+     * @return true if no element was added
+     */
+    public boolean isEmpty() {
+        return elements.isEmpty();
+    }
+
+    /**
+     * searches the element with the most similar title that was not matched before. Of equally similar elements the one closest to the given
+     * page is used. The found element is not returned by further searches.
+     *
+     * @param title title of the book part
+     * @param page first page of the book part
+     * @return the element or null if no title reaches the threshold
+     */
+    public DocstructPageMapping findBest(String title, int page) {
+        Set<String> grams = trigrams(title);
+        if (grams.isEmpty() || elements.isEmpty()) {
+            return null;
+        }
+        if (matched.length < elements.size()) {
+            matched = Arrays.copyOf(matched, elements.size());
+            visited = Arrays.copyOf(visited, elements.size());
+        }
+        query++;
+
+        // known trigrams ordered by their frequency, unknown trigrams can not be shared
+        int[] ids = new int[grams.size()];
+        int known = 0;
+        for (String gram : grams) {
+            Integer gramId = gramIds.get(gram);
+            if (gramId != null) {
+                ids[known++] = gramId;
+            }
+        }
+        int unknown = grams.size() - known;
+        Integer[] byFrequency = new Integer[known];
+        for (int i = 0; i < known; i++) {
+            byFrequency[i] = ids[i];
+        }
+        Arrays.sort(byFrequency, (a, b) -> Integer.compare(postingSizes[a], postingSizes[b]));
+        int[] queryGrams = Arrays.copyOf(ids, known);
+        Arrays.sort(queryGrams);
+
+        // a title with a similarity of at least the threshold shares one of the first trigrams of the query and has a similar length
+        int size = grams.size();
+        int minShared = (int) Math.ceil(threshold * size / (2 - threshold));
+        int prefix = size - minShared + 1 - unknown;
+        int minLength = minShared;
+        int maxLength = (int) Math.floor((2 - threshold) * size / threshold);
+
+        DocstructPageMapping best = null;
+        int bestId = -1;
+        double bestSimilarity = 0;
+        for (int i = 0; i < Math.min(prefix, known); i++) {
+            int gramId = byFrequency[i];
+            int[] posting = postings[gramId];
+            for (int p = 0; p < postingSizes[gramId]; p++) {
+                int id = posting[p];
+                if (matched[id] || visited[id] == query) {
+                    continue;
+                }
+                visited[id] = query;
+                int[] candidateGrams = elementGrams.get(id);
+                if (candidateGrams.length < minLength || candidateGrams.length > maxLength) {
+                    continue;
+                }
+                int required = (int) Math.ceil(Math.max(threshold, bestSimilarity) * (size + candidateGrams.length) / 2);
+                int shared = intersect(queryGrams, candidateGrams, required);
+                double similarity = 2.0 * shared / (size + candidateGrams.length);
+                if (shared < required || similarity < threshold || similarity < bestSimilarity) {
+                    continue;
+                }
+                DocstructPageMapping candidate = elements.get(id);
+                if (best == null || similarity > bestSimilarity
+                        || Math.abs(candidate.getFirstPage() - page) < Math.abs(best.getFirstPage() - page)) {
+                    best = candidate;
+                    bestId = id;
+                    bestSimilarity = similarity;
+                }
+            }
+        }
+        if (best != null) {
+            matched[bestId] = true;
+        }
+        return best;
+    }
+
+    /**
+     * @return the number of equal values of the sorted arrays, or a lower number if it is certain that they share less than the required values
+     */
+    private static int intersect(int[] a, int[] b, int required) {
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (count + Math.min(a.length - i, b.length - j) < required) {
+                return count;
+            }
+            if (a[i] == b[j]) {
+                count++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the lower case title without diacritics, punctuation and leading numbering
+     */
+    static String normalize(String title) {
+        if (title == null) {
+            return "";
+        }
+        String normalized = Normalizer.normalize(title, Normalizer.Form.NFKD);
+        normalized = DIACRITICS.matcher(normalized).replaceAll("").toLowerCase(Locale.ROOT);
+        normalized = NUMBERING.matcher(normalized).replaceFirst("");
+        return NO_WORD.matcher(normalized).replaceAll(" ").trim();
+    }
+
+    private static Set<String> trigrams(String title) {
+        String normalized = normalize(title);
+        Set<String> grams = new LinkedHashSet<>();
+        if (normalized.isEmpty()) {
+            return grams;
+        }
+        String padded = " " + normalized + " ";
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        return grams;
+    }
+}
@@ -1,14 +1,14 @@
 package de.intranda.goobi.plugins.model;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 
-import lombok.AllArgsConstructor;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
-import ugh.dl.Person;
 
 @Data
 @RequiredArgsConstructor
@@ -19,5 +19,18 @@ public class BookPart {
     private int firstPage;
     @NonNull
     private int lastPage;
-    private List<BookPart> bookParts = new ArrayList<>();
+    // created with the first nested book part, most book parts have none
+    @Getter(AccessLevel.NONE)
+    private List<BookPart> bookParts;
+
+    public List<BookPart> getBookParts() {
+        return bookParts == null ? Collections.emptyList() : bookParts;
+    }
+
+    public void addBookPart(BookPart part) {
+        if (this.bookParts == null) {
+            this.bookParts = new ArrayList<>(2);
+        }
+        this.bookParts.add(part);
+    }
 }
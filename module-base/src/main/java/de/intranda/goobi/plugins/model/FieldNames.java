@@ -0,0 +1,53 @@
+package de.intranda.goobi.plugins.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns the ruleset names of the mapped metadata and person types. The model stores the small ids instead of a reference per value, every
+ * name exists only once.
+ */
+public final class FieldNames {
+
+    private static final Map<String, Integer> IDS = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[16];
+    private static int count = 0;
+
+    private FieldNames() {
+    }
+
+    /**
+     * @return the id of the name, -1 for null
+     */
+    public static int getId(String name) {
+        if (name == null) {
+            return -1;
+        }
+        Integer id = IDS.get(name);
+        return id != null ? id : register(name);
+    }
+
+    /**
+     * @return the name of the id, null for -1
+     */
+    public static String getName(int id) {
+        return id < 0 ? null : names[id];
+    }
+
+    private static synchronized int register(String name) {
+        Integer id = IDS.get(name);
+        if (id != null) {
+            return id;
+        }
+        String[] current = names;
+        if (count == current.length) {
+            current = Arrays.copyOf(current, count * 2);
+        }
+        current[count] = name;
+        // publish the name before its id
+        names = current;
+        IDS.put(name, count);
+        return count++;
+    }
+}
@@ -1,11 +1,23 @@
 package de.intranda.goobi.plugins.model;
 
-import lombok.AllArgsConstructor;
 import lombok.Data;
 
 @Data
-@AllArgsConstructor
 public class MetadataElement {
-    private String mets;
+    // interned name of the metadata type, see FieldNames
+    private int metsId;
     private String value;
+
+    public MetadataElement(String mets, String value) {
+        this.metsId = FieldNames.getId(mets);
+        this.value = value;
+    }
+
+    public String getMets() {
+        return FieldNames.getName(metsId);
+    }
+
+    public void setMets(String mets) {
+        this.metsId = FieldNames.getId(mets);
+    }
 }
@@ -1,14 +1,48 @@
 package de.intranda.goobi.plugins.model;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
-import lombok.AllArgsConstructor;
-import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 
-@Data
-@AllArgsConstructor
+/**
+ * Metadata and persons of a publication or book part. The values are stored in arrays of the exact size, elements without values share the
+ * {@link #EMPTY} instance. The values can not be changed after creation.
+ */
+@EqualsAndHashCode
+@ToString
 public class ParsedMetadata {
-    private List<ParsedPerson> persons = new ArrayList<>();
-    private List<MetadataElement> metadata = new ArrayList<>();
+
+    private static final ParsedPerson[] NO_PERSONS = new ParsedPerson[0];
+    private static final MetadataElement[] NO_METADATA = new MetadataElement[0];
+
+    public static final ParsedMetadata EMPTY = new ParsedMetadata(Collections.emptyList(), Collections.emptyList());
+
+    private final ParsedPerson[] persons;
+    private final MetadataElement[] metadata;
+
+    public ParsedMetadata(List<ParsedPerson> persons, List<MetadataElement> metadata) {
+        this.persons = persons == null || persons.isEmpty() ? NO_PERSONS : persons.toArray(NO_PERSONS);
+        this.metadata = metadata == null || metadata.isEmpty() ? NO_METADATA : metadata.toArray(NO_METADATA);
+    }
+
+    /**
+     * @return the shared empty instance if there are no values, otherwise a new instance
+     */
+    public static ParsedMetadata of(List<ParsedPerson> persons, List<MetadataElement> metadata) {
+        if ((persons == null || persons.isEmpty()) && (metadata == null || metadata.isEmpty())) {
+            return EMPTY;
+        }
+        return new ParsedMetadata(persons, metadata);
+    }
+
+    public List<ParsedPerson> getPersons() {
+        return persons.length == 0 ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(persons));
+    }
+
+    public List<MetadataElement> getMetadata() {
+        return metadata.length == 0 ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(metadata));
+    }
 }
@@ -1,12 +1,25 @@
 package de.intranda.goobi.plugins.model;
 
-import lombok.AllArgsConstructor;
 import lombok.Data;
 
 @Data
-@AllArgsConstructor
 public class ParsedPerson {
-    private String mets;
+    // interned name of the person role, see FieldNames
+    private int metsId;
     private String firstName;
     private String lastName;
+
+    public ParsedPerson(String mets, String firstName, String lastName) {
+        this.metsId = FieldNames.getId(mets);
+        this.firstName = firstName;
+        this.lastName = lastName;
+    }
+
+    public String getMets() {
+        return FieldNames.getName(metsId);
+    }
+
+    public void setMets(String mets) {
+        this.metsId = FieldNames.getId(mets);
+    }
 }
@@ -0,0 +1,104 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BitsEntityResolverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCatalogHitByPathOfRemoteEntity() throws Exception {
+        Path catalog = folder.newFolder("catalog").toPath();
+        // modules with the same file name in different folders
+        write(catalog.resolve("jats.nlm.nih.gov/extensions/bits/2.0/modules/common.ent"), "bits");
+        write(catalog.resolve("jats.nlm.nih.gov/publishing/1.2/modules/common.ent"), "jats");
+        BitsEntityResolver resolver = new BitsEntityResolver(catalog, true);
+
+        assertEquals("bits", read(resolver, null, "https://jats.nlm.nih.gov/extensions/bits/2.0/modules/common.ent", null));
+        assertEquals("jats", read(resolver, null, "https://jats.nlm.nih.gov/publishing/1.2/modules/common.ent", null));
+    }
+
+    @Test
+    public void testCatalogHitByPathRelativeToBitsFile() throws Exception {
+        Path catalog = folder.newFolder("catalog").toPath();
+        write(catalog.resolve("dtd/book.dtd"), "<!ELEMENT book ANY>");
+        Path source = folder.newFolder("source").toPath();
+        String document = source.resolve("book.xml").toUri().toString();
+        BitsEntityResolver resolver = new BitsEntityResolver(catalog, true);
+
+        assertEquals("<!ELEMENT book ANY>", read(resolver, null, source.resolve("dtd/book.dtd").toUri().toString(), document));
+    }
+
+    @Test
+    public void testCatalogHitByPublicId() throws Exception {
+        Path catalog = folder.newFolder("catalog").toPath();
+        write(catalog.resolve("dtd/book.dtd"), "<!ELEMENT book ANY>");
+        write(catalog.resolve(BitsEntityResolver.CATALOG_FILE), "<catalog xmlns=\"urn:oasis:names:tc:entity:xmlns:xml:catalog\">"
+                + "<public publicId=\"-//TEST//DTD Book v1//EN\" uri=\"dtd/book.dtd\"/></catalog>");
+        BitsEntityResolver resolver = new BitsEntityResolver(catalog, true);
+
+        assertEquals("<!ELEMENT book ANY>", read(resolver, "-//TEST//DTD Book v1//EN", "https://example.org/dtd/book-v1.dtd", null));
+    }
+
+    @Test
+    public void testOfflineMiss() throws Exception {
+        Path catalog = folder.newFolder("catalog").toPath();
+        write(catalog.resolve("book.dtd"), "<!ELEMENT book ANY>");
+        BitsEntityResolver resolver = new BitsEntityResolver(catalog, true);
+        try {
+            // the file name alone does not match
+            resolver.getContent(null, "https://example.org/dtd/book.dtd", null);
+            fail("The entity must not be resolved");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testExistingLocalFileIsReadByParser() throws Exception {
+        Path local = folder.newFile("book.dtd").toPath();
+        BitsEntityResolver resolver = new BitsEntityResolver(folder.getRoot().toPath(), true);
+        assertNull(resolver.getContent(null, local.toUri().toString(), null));
+    }
+
+    @Test
+    public void testCacheReuse() throws Exception {
+        Path catalog = folder.newFolder("catalog").toPath();
+        Path module = catalog.resolve("example.org/dtd/book.dtd");
+        write(module, "cached");
+        FileTime lastModified = Files.getLastModifiedTime(module);
+        BitsEntityResolver resolver = new BitsEntityResolver(catalog, true);
+        assertEquals("cached", read(resolver, null, "https://example.org/dtd/book.dtd", null));
+
+        // another resolver reads the shared cache as long as the file was not modified
+        write(module, "changed");
+        Files.setLastModifiedTime(module, lastModified);
+        BitsEntityResolver otherResolver = new BitsEntityResolver(catalog, true);
+        assertEquals("cached", read(otherResolver, null, "https://example.org/dtd/book.dtd", null));
+
+        Files.setLastModifiedTime(module, FileTime.fromMillis(lastModified.toMillis() + 2000));
+        assertEquals("changed", read(otherResolver, null, "https://example.org/dtd/book.dtd", null));
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(BitsEntityResolver resolver, String publicId, String systemId, String documentId) throws IOException {
+        return new String(resolver.getContent(publicId, systemId, documentId), StandardCharsets.UTF_8);
+    }
+}
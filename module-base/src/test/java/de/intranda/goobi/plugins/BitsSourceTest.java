@@ -0,0 +1,105 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+public class BitsSourceTest {
+
+    private static final String BOOK = "<?xml version=\"1.0\"?>\n<!DOCTYPE book SYSTEM \"dtd/book.dtd\" [\n"
+            + "<!ENTITY part SYSTEM \"parts/part 1.ent\">\n]>\n<book>&part;</book>";
+
+    @Test
+    public void testZipPackage() throws Exception {
+        Path zip = Files.createTempFile("bits", ".zip");
+        zip.toFile().deleteOnExit();
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            addEntry(out, "dtd/book.dtd", "<!ELEMENT book ANY>");
+            addEntry(out, "parts/part 1.ent", "<book-part>&amp;1</book-part>");
+            addEntry(out, "parts/other.xml", "<other/>");
+            addEntry(out, "book.xml", BOOK);
+        }
+        assertEquals("book book-part &1", parse(zip));
+    }
+
+    @Test
+    public void testZipPackageWithoutXmlFile() throws Exception {
+        Path zip = Files.createTempFile("images", ".zip");
+        zip.toFile().deleteOnExit();
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("xml/"));
+            out.closeEntry();
+            addEntry(out, "00000001.tif", "image");
+        }
+        assertFalse(BitsSource.isBitsFile(zip));
+
+        Path bitsZip = Files.createTempFile("bits", ".ZIP");
+        bitsZip.toFile().deleteOnExit();
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(bitsZip))) {
+            addEntry(out, "00000001.tif", "image");
+            addEntry(out, "book/book.XML", BOOK);
+        }
+        assertTrue(BitsSource.isBitsFile(bitsZip));
+    }
+
+    @Test
+    public void testGzipFile() throws Exception {
+        Path folder = Files.createTempDirectory("bits");
+        Files.createDirectories(folder.resolve("dtd"));
+        Files.createDirectories(folder.resolve("parts"));
+        Files.write(folder.resolve("dtd/book.dtd"), "<!ELEMENT book ANY>".getBytes(StandardCharsets.UTF_8));
+        Files.write(folder.resolve("parts/part 1.ent"), "<book-part>&amp;1</book-part>".getBytes(StandardCharsets.UTF_8));
+        Path gzip = folder.resolve("book.xml.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzip))) {
+            out.write(BOOK.getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals("book book-part &1", parse(gzip));
+    }
+
+    private static void addEntry(ZipOutputStream out, String name, String content) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content.getBytes(StandardCharsets.UTF_8));
+        out.closeEntry();
+    }
+
+    private static String parse(Path file) throws Exception {
+        StringBuilder content = new StringBuilder();
+        try (BitsSource source = BitsSource.open(file, null); InputStream in = source.openStream()) {
+            XMLReader reader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+            reader.setEntityResolver(source.getEntityResolver());
+            reader.setContentHandler(new DefaultHandler() {
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                    content.append(qName).append(' ');
+                }
+
+                @Override
+                public void characters(char[] ch, int start, int length) {
+                    content.append(ch, start, length);
+                }
+            });
+            InputSource input = new InputSource(in);
+            input.setSystemId(source.getSystemId());
+            reader.parse(input);
+        }
+        return content.toString().trim();
+    }
+}
@@ -0,0 +1,102 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.intranda.goobi.plugins.model.Book;
+import de.intranda.goobi.plugins.model.BookPart;
+
+public class BitsXmlReaderTest {
+
+    // three levels of book parts, the nested parts are followed by the body or by further elements of their parent
+    private static final String XML = "<book><book-meta><book-title-group><book-title>Book</book-title></book-title-group></book-meta><book-body>"
+            + part("1", 1, 20, part("1.1", 1, 10, part("1.1.1", 1, 4, "") + part("1.1.2", 5, 10, ""))
+                    + "<back>" + part("1.2", 11, 20, part("1.2.1", 11, 20, "")) + "</back>")
+            + part("2", 21, 30, "") + "</book-body></book>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testNestedBookPartsInDocumentOrder() throws Exception {
+        Book book = readBook(false);
+        List<String> titles = new ArrayList<>();
+        for (BookPart part : book.getBookParts()) {
+            collectTitles(part, "", titles);
+        }
+        assertEquals(List.of("1", "1/1.1", "1/1.1/1.1.1", "1/1.1/1.1.2", "1/1.2", "1/1.2/1.2.1", "2"), titles);
+
+        BookPart first = book.getBookParts().get(0);
+        assertEquals(2, first.getBookParts().size());
+        BookPart leaf = first.getBookParts().get(0).getBookParts().get(1);
+        assertEquals(5, leaf.getFirstPage());
+        assertEquals(10, leaf.getLastPage());
+        assertEquals(0, leaf.getBookParts().size());
+    }
+
+    @Test
+    public void testNestedBookPartsWithStreaming() throws Exception {
+        assertEquals(readBook(false), readBook(true));
+    }
+
+    @Test
+    public void testParallelReadingKeepsTheOrder() throws Exception {
+        // several chunks of book parts, the last one is not full
+        Path bitsFile = ConversionFixtures.writeBitsFile(folder.getRoot().toPath(), 150);
+        SubnodeConfiguration config = ConversionHarness.loadConfiguration();
+        config.setProperty("useStreamingReader", "false");
+        MappingPlan plan = MappingPlan.compile(config);
+
+        Book sequential = readBook(bitsFile, plan, 1);
+        Book parallel = readBook(bitsFile, plan, 4);
+        assertEquals(150, sequential.getBookParts().size());
+        assertEquals("Chapter 150", parallel.getBookParts().get(149).getMetadata().getMetadata().get(0).getValue());
+        assertEquals(sequential, parallel);
+    }
+
+    private Book readBook(boolean streaming) throws Exception {
+        Path bitsFile = folder.getRoot().toPath().resolve("nested.xml");
+        Files.write(bitsFile, XML.getBytes(StandardCharsets.UTF_8));
+        SubnodeConfiguration config = ConversionHarness.loadConfiguration();
+        config.setProperty("elementMapping/@hierarchical", "true");
+        config.setProperty("useStreamingReader", String.valueOf(streaming));
+        MappingPlan plan = MappingPlan.compile(config);
+        assertEquals(streaming, plan.getStreamingParser() != null);
+        return readBook(bitsFile, plan, 1);
+    }
+
+    private static Book readBook(Path bitsFile, MappingPlan plan, int parallelism) throws Exception {
+        BitsXmlReader reader = new BitsXmlReader(bitsFile, plan.getBookPartNodePath(), new PdfBookInterchangeConvertStepPlugin(),
+                plan.getStreamingParser(), plan.getEntityResolver());
+        reader.setHierarchical(plan.isHierarchicalBookParts());
+        reader.setParallelism(parallelism);
+        return reader.readXml(plan.getPublicationMetadata(), plan.getPublicationPersons(), plan.getElementMetadata(), plan.getElementPersons(),
+                plan.getElementFpagePath(), plan.getElementLPagePath());
+    }
+
+    /**
+     * adds the titles of the book part and its nested book parts in depth first order, each with the titles of its parents
+     */
+    private static void collectTitles(BookPart part, String parentPath, List<String> titles) {
+        String path = parentPath + part.getMetadata().getMetadata().get(0).getValue();
+        titles.add(path);
+        for (BookPart nested : part.getBookParts()) {
+            collectTitles(nested, path + "/", titles);
+        }
+    }
+
+    private static String part(String title, int firstPage, int lastPage, String nestedParts) {
+        return "<book-part><book-part-meta><title-group><title>" + title + "</title></title-group><fpage>" + firstPage + "</fpage><lpage>"
+                + lastPage + "</lpage></book-part-meta><body><p>Text of " + title + "</p>" + nestedParts + "</body></book-part>";
+    }
+}
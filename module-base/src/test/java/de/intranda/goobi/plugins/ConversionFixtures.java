@@ -0,0 +1,203 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Metadata;
+import ugh.dl.Prefs;
+import ugh.exceptions.UGHException;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Generated BITS, PDF and METS files of a book with any number of book parts, matching the mapping of
+ * install/plugin_intranda_step_pdf_book_interchange_convert.xml. Every second book part was already created from the table of contents of the
+ * PDF, the others must be created by the conversion.
+ */
+final class ConversionFixtures {
+
+    static final int PAGES_PER_PART = 2;
+    static final String STRUCTURE_TYPE_PDF = "Chapter";
+    static final String METADATA_FILE = "meta.xml";
+
+    private ConversionFixtures() {
+    }
+
+    /**
+     * @return the preferences of install/ruleset.xml or of the ruleset given by the system property perf.ruleset
+     */
+    static Prefs loadPrefs() throws UGHException {
+        Prefs prefs = new Prefs();
+        prefs.loadPrefs(getInstallFile("perf.ruleset", "ruleset.xml").toString());
+        return prefs;
+    }
+
+    /**
+     * @return the file given by the system property or the file of the install folder
+     */
+    static Path getInstallFile(String property, String fileName) {
+        String file = System.getProperty(property);
+        if (file != null) {
+            return Paths.get(file);
+        }
+        Path installFile = Paths.get("install", fileName);
+        return Files.exists(installFile) ? installFile : Paths.get("..", "install", fileName);
+    }
+
+    /**
+     * writes a BITS file with the given number of book parts, each with a title, a subtitle, an author and a body with some paragraphs
+     *
+     * @return the written file
+     */
+    static Path writeBitsFile(Path folder, int bookParts) throws IOException {
+        return writeBitsFile(folder, "bits.xml", bookParts, "<isbn>978-3-16-148410-0</isbn>");
+    }
+
+    /**
+     * writes a BITS file like {@link #writeBitsFile(Path, int)}, e.g. for one volume of a multi-volume work
+     *
+     * @param identifiers elements at the end of the book-meta, e.g. the isbn or the book-volume-number
+     * @return the written file
+     */
+    static Path writeBitsFile(Path folder, String fileName, int bookParts, String identifiers) throws IOException {
+        Path file = folder.resolve(fileName);
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.write("<book xmlns:xlink=\"http://www.w3.org/1999/xlink\" dtd-version=\"2.0\" xml:lang=\"en\">\n");
+            out.write("<book-meta><book-title-group><book-title>Synthetic handbook</book-title><subtitle>" + bookParts
+                    + " parts</subtitle></book-title-group>\n");
+            out.write("<contrib-group>" + name("author", "Ada", "Lovelace") + name("editor", "Charles", "Babbage") + "</contrib-group>\n");
+            out.write(identifiers + "</book-meta>\n<book-body>\n");
+            for (int i = 0; i < bookParts; i++) {
+                int firstPage = i * PAGES_PER_PART + 1;
+                out.write("<book-part id=\"part" + i + "\" book-part-type=\"chapter\"><book-part-meta>");
+                out.write("<title-group><title>Chapter " + (i + 1) + "</title><subtitle>Subtitle of chapter " + (i + 1) + "</subtitle></title-group>");
+                out.write("<contrib-group>" + name("author", "Author", "Number " + i) + "</contrib-group>");
+                out.write("<fpage>" + firstPage + "</fpage><lpage>" + (firstPage + PAGES_PER_PART - 1) + "</lpage></book-part-meta>\n<body>");
+                for (int p = 0; p < 3; p++) {
+                    out.write("<sec><title>Section " + p + "</title><p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod "
+                            + "tempor incididunt ut labore et dolore magna aliqua. <italic>Ut enim</italic> ad minim veniam.</p></sec>");
+                }
+                out.write("</body></book-part>\n");
+            }
+            out.write("</book-body>\n</book>\n");
+        }
+        return file;
+    }
+
+    private static String name(String type, String givenNames, String surname) {
+        return "<contrib><name content-type=\"" + type + "\"><surname>" + surname + "</surname><given-names>" + givenNames
+                + "</given-names></name></contrib>";
+    }
+
+    /**
+     * writes a PDF file that only consists of the page tree with the given number of pages, enough for the {@link PdfPageCounter}
+     *
+     * @return the written file
+     */
+    static Path writePdfFile(Path folder, int pages) throws IOException {
+        List<String> objects = new ArrayList<>();
+        objects.add("<< /Type /Catalog /Pages 2 0 R >>");
+        objects.add("<< /Type /Pages /Kids [] /Count " + pages + " >>");
+        Path file = folder.resolve("book.pdf");
+        StringBuilder pdf = new StringBuilder("%PDF-1.4\n");
+        List<Integer> offsets = new ArrayList<>();
+        for (int i = 0; i < objects.size(); i++) {
+            offsets.add(pdf.length());
+            pdf.append(i + 1).append(" 0 obj\n").append(objects.get(i)).append("\nendobj\n");
+        }
+        int xref = pdf.length();
+        pdf.append("xref\n0 ").append(objects.size() + 1).append("\n0000000000 65535 f \n");
+        for (int offset : offsets) {
+            pdf.append(String.format("%010d 00000 n \n", offset));
+        }
+        pdf.append("trailer\n<< /Size ").append(objects.size() + 1).append(" /Root 1 0 R >>\nstartxref\n").append(xref).append("\n%%EOF\n");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            out.write(pdf.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+        return file;
+    }
+
+    /**
+     * writes the metadata file of a monograph with all pages of the book parts, as it is written by the extraction of the PDF
+     *
+     * @return the written file
+     */
+    static Path writeMetsFile(Path folder, Prefs prefs, int bookParts) throws UGHException {
+        Fileformat fileformat = new MetsMods(prefs);
+        DigitalDocument digitalDocument = new DigitalDocument();
+        fileformat.setDigitalDocument(digitalDocument);
+        DocStruct logical = digitalDocument.createDocStruct(prefs.getDocStrctTypeByName("Monograph"));
+        DocStruct physical = digitalDocument.createDocStruct(prefs.getDocStrctTypeByName("BoundBook"));
+        digitalDocument.setLogicalDocStruct(logical);
+        digitalDocument.setPhysicalDocStruct(physical);
+        for (int part = 0; part < bookParts; part++) {
+            DocStruct chapter = null;
+            if (part % 2 == 0) {
+                chapter = digitalDocument.createDocStruct(prefs.getDocStrctTypeByName(STRUCTURE_TYPE_PDF));
+                logical.addChild(chapter);
+            }
+            int firstPage = part * PAGES_PER_PART + 1;
+            for (int pageNumber = firstPage; pageNumber < firstPage + PAGES_PER_PART; pageNumber++) {
+                DocStruct page = digitalDocument.createDocStruct(prefs.getDocStrctTypeByName("page"));
+                Metadata physPageNumber = new Metadata(prefs.getMetadataTypeByName("physPageNumber"));
+                physPageNumber.setValue(String.valueOf(pageNumber));
+                page.addMetadata(physPageNumber);
+                physical.addChild(page);
+                logical.addReferenceTo(page, "logical_physical");
+                if (chapter != null) {
+                    chapter.addReferenceTo(page, "logical_physical");
+                }
+            }
+        }
+        Path file = folder.resolve(METADATA_FILE);
+        fileformat.write(file.toString());
+        return file;
+    }
+
+    /**
+     * writes the metadata file of a multi-volume work without book parts. The pages of the volumes follow each other, every volume has the
+     * pages of its book parts
+     *
+     * @param bookParts number of book parts of each volume
+     * @param identifiers type and value of a metadata of each volume, e.g. { "CurrentNo", "2" }
+     * @return the written file
+     */
+    static Path writeMultiVolumeMetsFile(Path folder, Prefs prefs, int[] bookParts, String[][] identifiers) throws UGHException {
+        Fileformat fileformat = new MetsMods(prefs);
+        DigitalDocument digitalDocument = new DigitalDocument();
+        fileformat.setDigitalDocument(digitalDocument);
+        DocStruct anchor = digitalDocument.createDocStruct(prefs.getDocStrctTypeByName("MultiVolumeWork"));
+        DocStruct physical = digitalDocument.createDocStruct(prefs.getDocStrctTypeByName("BoundBook"));
+        digitalDocument.setLogicalDocStruct(anchor);
+        digitalDocument.setPhysicalDocStruct(physical);
+        int pageNumber = 1;
+        for (int i = 0; i < bookParts.length; i++) {
+            DocStruct volume = digitalDocument.createDocStruct(prefs.getDocStrctTypeByName("Volume"));
+            Metadata identifier = new Metadata(prefs.getMetadataTypeByName(identifiers[i][0]));
+            identifier.setValue(identifiers[i][1]);
+            volume.addMetadata(identifier);
+            anchor.addChild(volume);
+            for (int page = 0; page < bookParts[i] * PAGES_PER_PART; page++, pageNumber++) {
+                DocStruct pageStruct = digitalDocument.createDocStruct(prefs.getDocStrctTypeByName("page"));
+                Metadata physPageNumber = new Metadata(prefs.getMetadataTypeByName("physPageNumber"));
+                physPageNumber.setValue(String.valueOf(pageNumber));
+                pageStruct.addMetadata(physPageNumber);
+                physical.addChild(pageStruct);
+                volume.addReferenceTo(pageStruct, "logical_physical");
+            }
+        }
+        Path file = folder.resolve(METADATA_FILE);
+        fileformat.write(file.toString());
+        return file;
+    }
+}
@@ -0,0 +1,274 @@
+package de.intranda.goobi.plugins;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.goobi.beans.Process;
+import org.goobi.beans.Project;
+import org.goobi.beans.Ruleset;
+import org.goobi.beans.Step;
+import org.goobi.production.enums.PluginReturnValue;
+
+import de.sub.goobi.helper.StorageProviderInterface;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.exceptions.UGHException;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Runs the plugin without the database and the storage of Goobi. The folders of the process are temporary folders with the generated BITS, PDF
+ * and metadata file. The storage provider only answers the calls the conversion is expected to make, every other
+ * call fails the run.
+ */
+final class ConversionHarness implements Closeable {
+
+    // backups of the metadata file the conversion keeps
+    static final int BACKUPS = 2;
+
+    private static Prefs prefs;
+
+    private final Path processFolder;
+    private final FakeProcess process;
+    private final Step step = new Step();
+    private final PdfBookInterchangeConvertStepPlugin plugin;
+
+    private ConversionHarness(Path processFolder, FakeProcess process, PdfBookInterchangeConvertStepPlugin plugin) {
+        this.processFolder = processFolder;
+        this.process = process;
+        this.plugin = plugin;
+    }
+
+    /**
+     * generates the files of a book with the given number of book parts and initializes the plugin with the default configuration, the pages are
+     * counted in the PDF file
+     */
+    static ConversionHarness create(int bookParts) throws IOException, ConfigurationException, UGHException {
+        return create(bookParts, false, new PdfBookInterchangeConvertStepPlugin());
+    }
+
+    /**
+     * generates the files of a book with the given number of book parts and initializes the plugin with the given configuration
+     *
+     * @param config configuration of the plugin, see {@link #loadConfiguration()}
+     */
+    static ConversionHarness create(int bookParts, SubnodeConfiguration config) throws IOException, ConfigurationException, UGHException {
+        return create(bookParts, false, new PdfBookInterchangeConvertStepPlugin(), config);
+    }
+
+    /**
+     * generates the files of a book with the given number of book parts and initializes the plugin
+     *
+     * @param goobiInitialization if true, the plugin is initialized like Goobi does it and reads the plan and the ruleset itself, otherwise they
+     *            are passed to the plugin
+     * @param plugin plugin instance to initialize
+     */
+    static ConversionHarness create(int bookParts, boolean goobiInitialization, PdfBookInterchangeConvertStepPlugin plugin)
+            throws IOException, ConfigurationException, UGHException {
+        return create(bookParts, goobiInitialization, plugin, loadConfiguration());
+    }
+
+    private static ConversionHarness create(int bookParts, boolean goobiInitialization, PdfBookInterchangeConvertStepPlugin plugin,
+            SubnodeConfiguration config) throws IOException, UGHException {
+        if (prefs == null) {
+            prefs = ConversionFixtures.loadPrefs();
+        }
+        Path processFolder = Files.createTempDirectory("bits-process");
+        Path sourceFolder = Files.createDirectories(processFolder.resolve("source"));
+        ConversionFixtures.writeBitsFile(sourceFolder, bookParts);
+        ConversionFixtures.writePdfFile(sourceFolder, bookParts * ConversionFixtures.PAGES_PER_PART);
+        ConversionFixtures.writeMetsFile(processFolder, prefs, bookParts);
+        FakeProcess process = new FakeProcess(processFolder);
+
+        ConversionHarness harness = new ConversionHarness(processFolder, process, plugin);
+        FileFilter.setStorageProvider(createStorageProvider());
+        MetadataFile.setNumberOfBackups(BACKUPS);
+        // process id 0 keeps the messages out of the process log of the database
+        harness.step.setProcessId(0);
+        harness.step.setProzess(process);
+        harness.step.setTitel("Convert BITS");
+        if (goobiInitialization) {
+            Project project = new Project();
+            project.setTitel("Integration tests");
+            process.setProjekt(project);
+            Ruleset ruleset = new Ruleset();
+            Path rulesetFile = ConversionFixtures.getInstallFile("perf.ruleset", "ruleset.xml");
+            ruleset.setDatei(rulesetFile.getFileName().toString());
+            process.setRegelsatz(ruleset);
+            MappingPlan.setConfigSource(new MappingPlan.ConfigSource() {
+                @Override
+                public SubnodeConfiguration getConfig(String title, Step step) {
+                    return config;
+                }
+
+                @Override
+                public long getLastModified(String title) {
+                    return 0;
+                }
+            });
+            PreferencesCache.setRulesetFolder(rulesetFile.toAbsolutePath().getParent());
+            harness.plugin.initialize(harness.step, "");
+        } else {
+            MappingPlan plan = MappingPlan.compile(config);
+            harness.plugin.initialize(harness.step, "", prefs, plan);
+        }
+        return harness;
+    }
+
+    static SubnodeConfiguration loadConfiguration() throws ConfigurationException {
+        XMLConfiguration xmlConfig = new XMLConfiguration();
+        xmlConfig.setDelimiterParsingDisabled(true);
+        xmlConfig.load(ConversionFixtures.getInstallFile("perf.config", "plugin_intranda_step_pdf_book_interchange_convert.xml").toFile());
+        xmlConfig.setExpressionEngine(new XPathExpressionEngine());
+        SubnodeConfiguration config = xmlConfig.configurationAt("//config[./project = '*'][./step = '*']");
+        config.setProperty("pageSource", "pdf");
+        config.setProperty("asynchronous", "false");
+        config.setProperty("entityCatalog/@folder", "");
+        config.setProperty("entityCatalog/@offline", "true");
+        return config;
+    }
+
+    /**
+     * @return a storage provider for the temporary folders that fails on all calls besides listing and creating folders
+     */
+    static StorageProviderInterface createStorageProvider() {
+        return (StorageProviderInterface) Proxy.newProxyInstance(StorageProviderInterface.class.getClassLoader(),
+                new Class<?>[] { StorageProviderInterface.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "isFileExists":
+                            return Files.exists((Path) args[0]);
+                        case "createDirectories":
+                            Files.createDirectories((Path) args[0]);
+                            return null;
+                        case "listFiles":
+                            @SuppressWarnings("unchecked")
+                            DirectoryStream.Filter<Path> filter = args.length > 1 ? (DirectoryStream.Filter<Path>) args[1] : path -> true;
+                            return listFiles(Paths.get((String) args[0]), filter);
+                        case "toString":
+                            return "storage provider of the integration tests";
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException("The conversion is not expected to call " + method.getName());
+                    }
+                });
+    }
+
+    private static List<Path> listFiles(Path folder, DirectoryStream.Filter<Path> filter) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(folder)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, filter)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    PluginReturnValue run() {
+        return plugin.run();
+    }
+
+    /**
+     * @return the metadata file of the process, read with the preferences of the harness
+     */
+    Fileformat getWrittenFile() throws UGHException {
+        Fileformat fileformat = new MetsMods(prefs);
+        fileformat.read(process.getMetadataFilePath());
+        return fileformat;
+    }
+
+    /**
+     * replaces the metadata file of the process, e.g. with values that were corrected in Goobi
+     */
+    void writeFile(Fileformat fileformat) throws UGHException {
+        fileformat.write(process.getMetadataFilePath());
+    }
+
+    /**
+     * @return the metadata file of the process
+     */
+    Path getMetadataFile() {
+        return Paths.get(process.getMetadataFilePath());
+    }
+
+    /**
+     * @return the preferences the metadata file is read with
+     */
+    Prefs getPrefs() {
+        return prefs;
+    }
+
+    /**
+     * @return the folder with the BITS and the PDF file
+     */
+    Path getSourceFolder() {
+        return processFolder.resolve("source");
+    }
+
+    @Override
+    public void close() throws IOException {
+        FileFilter.setStorageProvider(null);
+        MetadataFile.setNumberOfBackups(null);
+        MappingPlan.setConfigSource(null);
+        PreferencesCache.setRulesetFolder(null);
+        try (Stream<Path> files = Files.walk(processFolder)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Process with the folders and the metadata file of the temporary process folder
+     */
+    static class FakeProcess extends Process {
+
+        private final Path processFolder;
+
+        FakeProcess(Path processFolder) {
+            this.processFolder = processFolder;
+        }
+
+        @Override
+        public String getSourceDirectory() {
+            return processFolder.resolve("source").toString();
+        }
+
+        @Override
+        public String getImagesOrigDirectory(boolean useFallBack) {
+            return processFolder.resolve("master").toString();
+        }
+
+        @Override
+        public String getImportDirectory() {
+            return processFolder.resolve("import").toString();
+        }
+
+        @Override
+        public String getProcessDataDirectory() {
+            return processFolder.toString();
+        }
+
+        @Override
+        public String getMetadataFilePath() {
+            return processFolder.resolve(ConversionFixtures.METADATA_FILE).toString();
+        }
+    }
+}
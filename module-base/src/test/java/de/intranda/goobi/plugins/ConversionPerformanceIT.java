@@ -0,0 +1,97 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.TimeUnit;
+
+import org.goobi.production.enums.PluginReturnValue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+
+/**
+ * Converts generated books with the default configuration and fails if a conversion exceeds its budget of time or heap. Runs with mvn verify,
+ * the budgets can be scaled for slow build machines with -Dperf.budgetFactor=2
+ */
+public class ConversionPerformanceIT {
+
+    private static final double BUDGET_FACTOR = Double.parseDouble(System.getProperty("perf.budgetFactor", "1"));
+
+    @BeforeClass
+    public static void warmUp() throws Exception {
+        try (ConversionHarness harness = ConversionHarness.create(100)) {
+            assertEquals(PluginReturnValue.FINISH, harness.run());
+        }
+    }
+
+    @Test
+    public void testThousandBookParts() throws Exception {
+        assertWithinBudget(1_000, 5, 256);
+    }
+
+    @Test
+    public void testTwentyThousandBookParts() throws Exception {
+        assertWithinBudget(20_000, 60, 1024);
+    }
+
+    /**
+     * @param seconds maximum wall clock time of the conversion
+     * @param megabytes maximum heap the conversion may use, including the read metadata file
+     */
+    private static void assertWithinBudget(int bookParts, long seconds, long megabytes) throws Exception {
+        try (ConversionHarness harness = ConversionHarness.create(bookParts)) {
+            long baseline = getUsedHeap();
+            resetPeakHeap();
+            long start = System.nanoTime();
+            PluginReturnValue result = harness.run();
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            long heap = (getPeakHeap() - baseline) / (1024 * 1024);
+
+            assertEquals(PluginReturnValue.FINISH, result);
+            Fileformat written = harness.getWrittenFile();
+            assertNotNull(written);
+            DocStruct logical = written.getDigitalDocument().getLogicalDocStruct();
+            assertEquals(bookParts, logical.getAllChildren().size());
+
+            long maxMillis = (long) (TimeUnit.SECONDS.toMillis(seconds) * BUDGET_FACTOR);
+            long maxHeap = (long) (megabytes * BUDGET_FACTOR);
+            assertTrue("The conversion of " + bookParts + " book parts took " + millis + " ms, the budget is " + maxMillis + " ms",
+                    millis <= maxMillis);
+            assertTrue("The conversion of " + bookParts + " book parts used " + heap + " MB of heap, the budget is " + maxHeap + " MB",
+                    heap <= maxHeap);
+        }
+    }
+
+    private static long getUsedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * @return the sum of the peaks of the heap pools, an upper bound of the heap used at once
+     */
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,81 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.goobi.production.enums.LogType;
+import org.junit.Test;
+
+public class DocumentManagerTest {
+
+    // printed first pages of the book parts
+    private static final List<Integer> BOOK_PARTS = Arrays.asList(1, 5, 9, 13, 17);
+
+    @Test
+    public void testNoOffset() {
+        RecordingPlugin plugin = new RecordingPlugin();
+        assertEquals(0, DocumentManager.detectPageOffset(BOOK_PARTS, BOOK_PARTS, 0, plugin));
+        assertEquals(0, plugin.messages.size());
+    }
+
+    @Test
+    public void testPositiveOffset() {
+        // front matter of 6 pages, one book part has no element yet
+        RecordingPlugin plugin = new RecordingPlugin();
+        assertEquals(6, DocumentManager.detectPageOffset(BOOK_PARTS, Arrays.asList(1, 7, 11, 15, 23), 0, plugin));
+        assertEquals(1, plugin.messages.size());
+        assertTrue(plugin.messages.get(0), plugin.messages.get(0).startsWith("INFO: A page offset of 6 "));
+        assertTrue(plugin.messages.get(0), plugin.messages.get(0).contains(" 4 of 5 book parts "));
+    }
+
+    @Test
+    public void testNegativeOffset() {
+        // the printed page numbers count the pages of a previous volume
+        RecordingPlugin plugin = new RecordingPlugin();
+        assertEquals(-100, DocumentManager.detectPageOffset(Arrays.asList(101, 105, 109, 113), Arrays.asList(1, 5, 9, 13), 0, plugin));
+        assertEquals(1, plugin.messages.size());
+        assertTrue(plugin.messages.get(0), plugin.messages.get(0).startsWith("INFO: A page offset of -100 "));
+    }
+
+    @Test
+    public void testAmbiguousOffsetIsNotApplied() {
+        // with the offsets 4 and 14 both book parts start at the first page of an element
+        RecordingPlugin plugin = new RecordingPlugin();
+        assertEquals(0, DocumentManager.detectPageOffset(Arrays.asList(1, 11), Arrays.asList(5, 15, 25), 0, plugin));
+        assertEquals(1, plugin.messages.size());
+        assertTrue(plugin.messages.get(0), plugin.messages.get(0).startsWith("WARN: "));
+        assertTrue(plugin.messages.get(0), plugin.messages.get(0).contains("The offsets 4 and 14 both let 2 of 2 book parts"));
+    }
+
+    @Test
+    public void testConfiguredOffsetIsKeptIfNoOffsetIsBetter() {
+        // the configured offset and the offset 10 let the same book parts start at an element
+        RecordingPlugin plugin = new RecordingPlugin();
+        assertEquals(2, DocumentManager.detectPageOffset(Arrays.asList(1, 9, 21), Arrays.asList(3, 31, 40), 2, plugin));
+        assertEquals(0, plugin.messages.size());
+
+        // a different offset is never used without a message
+        for (int offset = -3; offset <= 3; offset++) {
+            plugin.messages.clear();
+            int detected = DocumentManager.detectPageOffset(BOOK_PARTS, Arrays.asList(3, 7, 11, 12, 19), offset, plugin);
+            assertEquals(detected == offset ? 0 : 1, plugin.messages.size());
+        }
+    }
+
+    /**
+     * records the messages instead of writing them to the log
+     */
+    private static class RecordingPlugin extends PdfBookInterchangeConvertStepPlugin {
+        private final List<String> messages = new ArrayList<>();
+
+        @Override
+        public String log(String message, LogType logType, boolean log4j) {
+            messages.add(logType + ": " + message);
+            return message;
+        }
+    }
+}
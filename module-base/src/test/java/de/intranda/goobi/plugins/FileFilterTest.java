@@ -0,0 +1,68 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.intranda.goobi.plugins.FileFilter.FileType;
+
+public class FileFilterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testClassify() {
+        assertEquals(FileType.IMAGE, FileType.classify("00000001.tif"));
+        assertEquals(FileType.IMAGE, FileType.classify("00000001.TIFF"));
+        assertEquals(FileType.IMAGE, FileType.classify("00000001.Jpg"));
+        assertEquals(FileType.PDF, FileType.classify("book.PDF"));
+        assertEquals(FileType.XML, FileType.classify("book.xml"));
+        assertEquals(FileType.XML, FileType.classify("book.v1.XML"));
+        assertEquals(FileType.XML_ARCHIVE, FileType.classify("book.xml.gz"));
+        assertEquals(FileType.XML_ARCHIVE, FileType.classify("book.XML.GZ"));
+        assertEquals(FileType.XML_ARCHIVE, FileType.classify("book.Zip"));
+
+        // hidden files, e.g. of the operating system or of an editor
+        assertNull(FileType.classify(".book.xml"));
+        assertNull(FileType.classify("._00000001.tif"));
+        // other archives and files without extension
+        assertNull(FileType.classify("book.tar.gz"));
+        assertNull(FileType.classify("book.gz"));
+        assertNull(FileType.classify("README"));
+    }
+
+    @Test
+    public void testListFolder() throws Exception {
+        Path root = folder.getRoot().toPath();
+        for (String name : new String[] { "b.xml", "a.xml.gz", "c.zip", "book.pdf", "00000002.tif", "00000001.TIF", ".hidden.xml", "notes.txt" }) {
+            Files.createFile(root.resolve(name));
+        }
+        // folders are never listed as files, whatever their name
+        Files.createDirectory(root.resolve("images.tif"));
+        Files.createDirectory(root.resolve("old.xml"));
+
+        FileFilter.FolderListing listing = FileFilter.listFolder(root);
+        assertEquals(List.of(root.resolve("a.xml.gz"), root.resolve("b.xml"), root.resolve("c.zip")), listing.getBitsFiles());
+        assertEquals(List.of(root.resolve("b.xml")), listing.getXmlFiles());
+        assertEquals(List.of(root.resolve("book.pdf")), listing.getPdfFiles());
+        assertEquals(List.of(root.resolve("00000001.TIF"), root.resolve("00000002.tif")), listing.getImageFiles());
+    }
+
+    @Test
+    public void testMissingFolder() {
+        FileFilter.setStorageProvider(ConversionHarness.createStorageProvider());
+        try {
+            assertEquals(0, FileFilter.listFolder(folder.getRoot().toPath().resolve("missing")).getBitsFiles().size());
+        } finally {
+            FileFilter.setStorageProvider(null);
+        }
+    }
+}
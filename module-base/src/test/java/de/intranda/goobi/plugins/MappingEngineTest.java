@@ -0,0 +1,50 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.xpath.XPathExpression;
+import org.junit.Test;
+
+public class MappingEngineTest {
+
+    private static final String XML = "<book><book-meta><book-title-group><book-title>Title</book-title></book-title-group></book-meta>"
+            + "<book-body><book-part id=\"p1\"><book-part-meta><title-group><title>One</title><subtitle>Sub</subtitle></title-group>"
+            + "<contrib-group><contrib><name content-type=\"author\"><surname>Doe</surname><given-names>Jane</given-names></name></contrib>"
+            + "<contrib><name content-type=\"editor\"><surname>Roe</surname></name></contrib></contrib-group>"
+            + "<fpage>1</fpage><lpage>10</lpage></book-part-meta></book-part></book-body></book>";
+
+    @Test
+    public void testSameResultAsXpath() throws JDOMException, IOException {
+        Document document = new SAXBuilder().build(new StringReader(XML));
+        Element meta = document.getRootElement().getChild("book-body").getChild("book-part").getChild("book-part-meta");
+
+        List<XPathExpression<Object>> expressions = new ArrayList<>();
+        expressions.add(BitsXmlReader.compileXpath("./title-group/title"));
+        expressions.add(BitsXmlReader.compileXpath("./title-group/subtitle/text()"));
+        expressions.add(BitsXmlReader.compileXpath(".//name[@content-type='author']"));
+        expressions.add(BitsXmlReader.compileXpath(".//name[@content-type]"));
+        expressions.add(BitsXmlReader.compileXpath(".//contrib/name/@content-type"));
+        expressions.add(BitsXmlReader.compileXpath("./fpage"));
+        expressions.add(BitsXmlReader.compileXpath("./lpage[. > 5]"));
+        expressions.add(BitsXmlReader.compileXpath("../@id"));
+
+        List<List<Object>> results = new MappingEngine(expressions).evaluate(meta);
+        for (int i = 0; i < expressions.size(); i++) {
+            assertEquals(expressions.get(i).getExpression(), expressions.get(i).evaluate(meta), results.get(i));
+        }
+
+        XPathExpression<Object> title = BitsXmlReader.compileXpath("./book/book-meta/book-title-group/book-title");
+        List<XPathExpression<Object>> publication = new ArrayList<>();
+        publication.add(title);
+        assertEquals(title.evaluate(document), new MappingEngine(publication).evaluate(document).get(0));
+    }
+}
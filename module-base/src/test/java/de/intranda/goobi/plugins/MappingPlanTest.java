@@ -0,0 +1,86 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.goobi.beans.Process;
+import org.goobi.beans.Project;
+import org.goobi.beans.Step;
+import org.goobi.production.enums.LogType;
+import org.junit.After;
+import org.junit.Test;
+
+public class MappingPlanTest {
+
+    @After
+    public void resetConfigSource() {
+        MappingPlan.setConfigSource(null);
+    }
+
+    @Test
+    public void testPlanIsCompiledAgainIfTheConfigurationWasModified() {
+        AtomicLong lastModified = new AtomicLong(1000);
+        AtomicInteger reads = new AtomicInteger();
+        MappingPlan.setConfigSource(new MappingPlan.ConfigSource() {
+            @Override
+            public SubnodeConfiguration getConfig(String title, Step step) {
+                reads.incrementAndGet();
+                return loadConfiguration();
+            }
+
+            @Override
+            public long getLastModified(String title) {
+                return lastModified.get();
+            }
+        });
+        Step step = createStep();
+
+        MappingPlan plan = MappingPlan.getPlan("test", step);
+        assertSame(plan, MappingPlan.getPlan("test", step));
+        assertEquals(1, reads.get());
+
+        lastModified.set(3000);
+        MappingPlan modifiedPlan = MappingPlan.getPlan("test", step);
+        assertNotSame(plan, modifiedPlan);
+        assertSame(modifiedPlan, MappingPlan.getPlan("test", step));
+        assertEquals(2, reads.get());
+    }
+
+    @Test
+    public void testErrorsAreKeptWithThePlan() throws ConfigurationException {
+        SubnodeConfiguration config = ConversionHarness.loadConfiguration();
+        config.setProperty("elementMapping/metadata[1]/@field", "");
+        MappingPlan plan = MappingPlan.compile(config);
+
+        assertFalse(plan.isComplete());
+        // the messages stay with the plan, every execution that uses it reports them
+        assertTrue(plan.getMessages().stream().anyMatch(m -> m.getType() == LogType.ERROR && m.getMessage().contains("elementMapping")));
+    }
+
+    private static SubnodeConfiguration loadConfiguration() {
+        try {
+            return ConversionHarness.loadConfiguration();
+        } catch (ConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Step createStep() {
+        Project project = new Project();
+        project.setTitel("Tests");
+        Process process = new Process();
+        process.setProjekt(project);
+        Step step = new Step();
+        step.setTitel("Convert BITS");
+        step.setProzess(process);
+        return step;
+    }
+}
@@ -0,0 +1,105 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ugh.dl.Fileformat;
+import ugh.exceptions.WriteException;
+
+public class MetadataFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void resetBackups() {
+        MetadataFile.setNumberOfBackups(null);
+    }
+
+    @Test
+    public void testBackupsAreRotated() throws Exception {
+        MetadataFile.setNumberOfBackups(2);
+        ConversionHarness.FakeProcess process = new ConversionHarness.FakeProcess(folder.getRoot().toPath());
+        Path metadataFile = Paths.get(process.getMetadataFilePath());
+        Path anchorFile = MetadataFile.getAnchorFile(metadataFile);
+        Files.write(metadataFile, "version 0".getBytes(StandardCharsets.UTF_8));
+        Files.write(anchorFile, "anchor 0".getBytes(StandardCharsets.UTF_8));
+
+        for (int version = 1; version <= 3; version++) {
+            MetadataFile.write(process, createFileformat("version " + version, "anchor " + version));
+        }
+
+        assertEquals("version 3", read(metadataFile));
+        assertEquals("version 2", read(MetadataFile.getBackupFile(metadataFile, 1)));
+        assertEquals("version 1", read(MetadataFile.getBackupFile(metadataFile, 2)));
+        assertFalse(Files.exists(MetadataFile.getBackupFile(metadataFile, 3)));
+        assertEquals("anchor 3", read(anchorFile));
+        assertEquals("anchor 2", read(MetadataFile.getBackupFile(anchorFile, 1)));
+        // no temporary files are left
+        assertFalse(Files.exists(metadataFile.resolveSibling(MetadataFile.TEMPORARY_PREFIX + metadataFile.getFileName())));
+        assertFalse(Files.exists(MetadataFile.getAnchorFile(metadataFile.resolveSibling(MetadataFile.TEMPORARY_PREFIX + metadataFile.getFileName()))));
+    }
+
+    @Test
+    public void testFailedWriteKeepsTheOldFile() throws Exception {
+        MetadataFile.setNumberOfBackups(2);
+        ConversionHarness.FakeProcess process = new ConversionHarness.FakeProcess(folder.getRoot().toPath());
+        Path metadataFile = Paths.get(process.getMetadataFilePath());
+        Files.write(metadataFile, "version 0".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            // an empty file is not a valid metadata file
+            MetadataFile.write(process, createFileformat("", null));
+            fail("The empty file must not replace the metadata file");
+        } catch (WriteException e) {
+            // expected
+        }
+        assertEquals("version 0", read(metadataFile));
+        assertFalse(Files.exists(MetadataFile.getBackupFile(metadataFile, 1)));
+    }
+
+    @Test
+    public void testAnchorFileName() {
+        assertEquals(Paths.get("/process/meta_anchor.xml"), MetadataFile.getAnchorFile(Paths.get("/process/meta.xml")));
+        assertEquals(Paths.get("/process/temp_meta_anchor.xml"), MetadataFile.getAnchorFile(Paths.get("/process/temp_meta.xml")));
+    }
+
+    /**
+     * @return a file format that writes the given content like MetsMods writes a metadata file and its anchor file
+     */
+    private static Fileformat createFileformat(String content, String anchorContent) {
+        return (Fileformat) Proxy.newProxyInstance(Fileformat.class.getClassLoader(), new Class<?>[] { Fileformat.class }, (proxy, method, args) -> {
+            if (!"write".equals(method.getName())) {
+                throw new UnsupportedOperationException(method.getName());
+            }
+            Path file = Paths.get((String) args[0]);
+            try {
+                Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+                if (anchorContent != null) {
+                    Files.write(MetadataFile.getAnchorFile(file), anchorContent.getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return true;
+        });
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+}
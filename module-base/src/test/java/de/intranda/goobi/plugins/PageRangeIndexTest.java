@@ -0,0 +1,40 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.intranda.goobi.plugins.DocumentManager.DocstructPageMapping;
+
+public class PageRangeIndexTest {
+
+    @Test
+    public void testQueries() {
+        List<DocstructPageMapping> ranges = new ArrayList<>();
+        DocstructPageMapping chapter1 = new DocstructPageMapping(null, 1, 20);
+        DocstructPageMapping section = new DocstructPageMapping(null, 5, 9);
+        DocstructPageMapping chapter2 = new DocstructPageMapping(null, 21, 40);
+        ranges.add(chapter2);
+        ranges.add(section);
+        ranges.add(chapter1);
+        PageRangeIndex index = new PageRangeIndex(ranges);
+
+        assertEquals(section, index.findExact(5, 9, 0, null));
+        assertNull(index.findExact(6, 9, 0, null));
+        assertEquals(section, index.findExact(6, 9, 1, null));
+        assertEquals(chapter2, index.findExact(22, 41, 1, null));
+        assertNull(index.findExact(22, 41, 1, range -> range != chapter2));
+
+        assertEquals(section, index.findContaining(6, 8, null));
+        assertEquals(chapter1, index.findContaining(4, 8, null));
+        assertNull(index.findContaining(18, 22, null));
+
+        assertEquals(chapter2, index.findClosestOverlap(18, 38, null));
+        assertEquals(3, index.findOverlapping(1, 40).size());
+        assertEquals(0, index.findOverlapping(41, 50).size());
+    }
+}
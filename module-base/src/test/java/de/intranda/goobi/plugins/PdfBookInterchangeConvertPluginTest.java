@@ -1,20 +1,42 @@
 package de.intranda.goobi.plugins;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.goobi.beans.Step;
+import org.goobi.production.enums.PluginReturnValue;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import de.sub.goobi.helper.StorageProviderInterface;
+import de.sub.goobi.helper.enums.StepStatus;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Metadata;
+
 //@RunWith(PowerMockRunner.class)
 //@PowerMockIgnore({ "javax.management.*", "javax.net.ssl.*" ,"jdk.internal.reflect.*"})
 public class PdfBookInterchangeConvertPluginTest {
 
 
 
+    // metadata type of the checksum in the reference ruleset
+    private static final String CHECKSUM_TYPE = "_bitsChecksum";
+
     private static String resourcesFolder;
 
     @BeforeClass
@@ -35,4 +57,199 @@ public class PdfBookInterchangeConvertPluginTest {
         String s = "xyz";
         assertNotNull(s);
     }
+
+    @Test
+    public void testInitializeWithoutPlan() throws Exception {
+        // Goobi initializes the plugin with the step only, the plan and the ruleset are read by the plugin
+        try (ConversionHarness harness = ConversionHarness.create(10, true, new PdfBookInterchangeConvertStepPlugin())) {
+            assertEquals(PluginReturnValue.FINISH, harness.run());
+            assertEquals(10, harness.getWrittenFile().getDigitalDocument().getLogicalDocStruct().getAllChildren().size());
+        }
+    }
+
+    @Test
+    public void testRepeatedExecutionReusesThePhysicalPages() throws Exception {
+        // without the checksum the repeated execution maps the file again
+        try (ConversionHarness harness = ConversionHarness.create(10)) {
+            assertEquals(PluginReturnValue.FINISH, harness.run());
+            List<String> firstPages = getPhysPageNumbers(harness.getWrittenFile().getDigitalDocument());
+            assertEquals(PluginReturnValue.FINISH, harness.run());
+            DigitalDocument digitalDocument = harness.getWrittenFile().getDigitalDocument();
+
+            assertEquals(10 * ConversionFixtures.PAGES_PER_PART, firstPages.size());
+            assertEquals(firstPages, getPhysPageNumbers(digitalDocument));
+            List<DocStruct> bookParts = digitalDocument.getLogicalDocStruct().getAllChildren();
+            assertEquals(10, bookParts.size());
+            for (DocStruct bookPart : bookParts) {
+                assertEquals(ConversionFixtures.PAGES_PER_PART, bookPart.getAllToReferences("logical_physical").size());
+            }
+        }
+    }
+
+    @Test
+    public void testUnchangedFileIsNotConvertedAgain() throws Exception {
+        SubnodeConfiguration config = ConversionHarness.loadConfiguration();
+        config.setProperty("checksumMetadata", CHECKSUM_TYPE);
+        try (ConversionHarness harness = ConversionHarness.create(10, config)) {
+            assertEquals(PluginReturnValue.FINISH, harness.run());
+            Path metadataFile = harness.getMetadataFile();
+            byte[] written = Files.readAllBytes(metadataFile);
+            assertEquals(1, getValues(harness.getWrittenFile().getDigitalDocument().getLogicalDocStruct(), CHECKSUM_TYPE).size());
+
+            assertEquals(PluginReturnValue.FINISH, harness.run());
+            assertArrayEquals(written, Files.readAllBytes(metadataFile));
+        }
+    }
+
+    @Test
+    public void testChangedFileKeepsCorrectedAndUnmappedValues() throws Exception {
+        SubnodeConfiguration config = ConversionHarness.loadConfiguration();
+        config.setProperty("checksumMetadata", CHECKSUM_TYPE);
+        try (ConversionHarness harness = ConversionHarness.create(10, config)) {
+            assertEquals(PluginReturnValue.FINISH, harness.run());
+            String checksum = getValues(harness.getWrittenFile().getDigitalDocument().getLogicalDocStruct(), CHECKSUM_TYPE).get(0);
+
+            // the title of the first book part is corrected in Goobi and a value of a type that is not mapped is added
+            Fileformat corrected = harness.getWrittenFile();
+            DocStruct firstPart = corrected.getDigitalDocument().getLogicalDocStruct().getAllChildren().get(0);
+            firstPart.getAllMetadataByType(harness.getPrefs().getMetadataTypeByName("TitleDocMain")).get(0).setValue("Corrected title");
+            Metadata language = new Metadata(harness.getPrefs().getMetadataTypeByName("DocLanguage"));
+            language.setValue("en");
+            firstPart.addMetadata(language);
+            harness.writeFile(corrected);
+            // the publisher changes the title of the second book part
+            Path bitsFile = harness.getSourceFolder().resolve("bits.xml");
+            String bits = new String(Files.readAllBytes(bitsFile), StandardCharsets.UTF_8);
+            Files.write(bitsFile, bits.replace("<title>Chapter 2</title>", "<title>Chapter Two</title>").getBytes(StandardCharsets.UTF_8));
+
+            assertEquals(PluginReturnValue.FINISH, harness.run());
+            DocStruct logical = harness.getWrittenFile().getDigitalDocument().getLogicalDocStruct();
+            assertNotEquals(checksum, getValues(logical, CHECKSUM_TYPE).get(0));
+            assertEquals(List.of("Synthetic handbook"), getValues(logical, "TitleDocMain"));
+            List<DocStruct> bookParts = logical.getAllChildren();
+            assertEquals(10, bookParts.size());
+            assertEquals(List.of("Corrected title"), getValues(bookParts.get(0), "TitleDocMain"));
+            assertEquals(List.of("en"), getValues(bookParts.get(0), "DocLanguage"));
+            // existing values are never replaced, the difference is reported
+            assertEquals(List.of("Chapter 2"), getValues(bookParts.get(1), "TitleDocMain"));
+            assertEquals(List.of("Subtitle of chapter 2"), getValues(bookParts.get(1), "TitleDocSub1"));
+        }
+    }
+
+    @Test
+    public void testVolumesAreMatchedByIsbnAndVolumeNumber() throws Exception {
+        SubnodeConfiguration config = ConversionHarness.loadConfiguration();
+        // the default configuration maps no volume number, it replaces the subtitle here
+        config.setProperty("publicationMapping/metadata[2]/@value", "./book/book-meta/book-volume-number");
+        config.setProperty("publicationMapping/metadata[2]/@field", "CurrentNo");
+        try (ConversionHarness harness = ConversionHarness.create(5, config)) {
+            Path sourceFolder = harness.getSourceFolder();
+            Files.delete(sourceFolder.resolve("bits.xml"));
+            // the first volume is found by the ISBN, the second one by the volume number and the third one is not part of the process
+            ConversionFixtures.writeBitsFile(sourceFolder, "volume1.xml", 2, "<isbn>978-3-16-148410-0</isbn>");
+            ConversionFixtures.writeBitsFile(sourceFolder, "volume2.xml", 3, "<book-volume-number>2</book-volume-number>");
+            ConversionFixtures.writeBitsFile(sourceFolder, "volume3.xml", 1,
+                    "<isbn>978-0-306-40615-7</isbn><book-volume-number>3</book-volume-number>");
+            ConversionFixtures.writeMultiVolumeMetsFile(harness.getMetadataFile().getParent(), harness.getPrefs(), new int[] { 2, 3 },
+                    new String[][] { { "ISBN", "9783161484100" }, { "CurrentNo", "2" } });
+
+            // the file without a volume is reported, the other volumes are converted anyway
+            assertEquals(PluginReturnValue.ERROR, harness.run());
+            List<DocStruct> volumes = harness.getWrittenFile().getDigitalDocument().getLogicalDocStruct().getAllChildren();
+            assertEquals(2, volumes.size());
+            assertEquals(List.of("Synthetic handbook"), getValues(volumes.get(0), "TitleDocMain"));
+            assertEquals(2, volumes.get(0).getAllChildren().size());
+            assertEquals(List.of("Synthetic handbook"), getValues(volumes.get(1), "TitleDocMain"));
+            assertEquals(List.of("2"), getValues(volumes.get(1), "CurrentNo"));
+            List<DocStruct> bookParts = volumes.get(1).getAllChildren();
+            assertEquals(3, bookParts.size());
+            // the page numbers of the BITS file start with 1 in every volume
+            for (DocStruct bookPart : bookParts) {
+                assertEquals(ConversionFixtures.PAGES_PER_PART, bookPart.getAllToReferences("logical_physical").size());
+            }
+            assertEquals(List.of("5"), getValues(bookParts.get(0).getAllToReferences("logical_physical").get(0).getTarget(), "physPageNumber"));
+        }
+    }
+
+    @Test
+    public void testCancelledAsynchronousConversion() throws Exception {
+        StepRecordingPlugin plugin = new StepRecordingPlugin();
+        try (ConversionHarness harness = ConversionHarness.create(10, false, plugin)) {
+            ConversionProgress progress = new ConversionProgress(0);
+            progress.cancel();
+            plugin.runAndCloseStep(progress);
+            assertEquals(ConversionProgress.State.CANCELLED, progress.getState());
+            // the step can be started again
+            assertEquals(StepStatus.OPEN, plugin.savedStatus);
+        }
+    }
+
+    @Test
+    public void testFailedAsynchronousConversion() throws Exception {
+        StepRecordingPlugin plugin = new StepRecordingPlugin();
+        try (ConversionHarness harness = ConversionHarness.create(10, false, plugin)) {
+            FileFilter.setStorageProvider((StorageProviderInterface) Proxy.newProxyInstance(StorageProviderInterface.class.getClassLoader(),
+                    new Class<?>[] { StorageProviderInterface.class }, (proxy, method, args) -> {
+                        throw new IllegalStateException("storage not available");
+                    }));
+            ConversionProgress progress = new ConversionProgress(0);
+            plugin.runAndCloseStep(progress);
+            assertEquals(ConversionProgress.State.ERROR, progress.getState());
+            assertEquals(StepStatus.ERROR, plugin.savedStatus);
+        }
+    }
+
+    @Test
+    public void testProcessIsClaimedOnce() {
+        // the batch conversion and the asynchronous conversion use the same claim
+        ConversionProgress progress = ConversionExecutor.claim(4711);
+        assertNotNull(progress);
+        try {
+            assertNull(ConversionExecutor.claim(4711));
+            assertNull(ConversionExecutor.submit(4711, p -> {
+            }));
+        } finally {
+            ConversionExecutor.release(progress);
+        }
+        ConversionProgress next = ConversionExecutor.claim(4711);
+        assertNotNull(next);
+        ConversionExecutor.release(next);
+        assertNull(ConversionExecutor.getProgress(4711));
+    }
+
+    private static List<String> getValues(DocStruct ds, String type) {
+        List<String> values = new ArrayList<>();
+        if (ds.getAllMetadata() != null) {
+            for (Metadata metadata : ds.getAllMetadata()) {
+                if (type.equals(metadata.getType().getName())) {
+                    values.add(metadata.getValue());
+                }
+            }
+        }
+        return values;
+    }
+
+    private static List<String> getPhysPageNumbers(DigitalDocument digitalDocument) {
+        List<String> pageNumbers = new ArrayList<>();
+        for (DocStruct page : digitalDocument.getPhysicalDocStruct().getAllChildren()) {
+            for (Metadata metadata : page.getAllMetadata()) {
+                if ("physPageNumber".equals(metadata.getType().getName())) {
+                    pageNumbers.add(metadata.getValue());
+                }
+            }
+        }
+        return pageNumbers;
+    }
+
+    /**
+     * records the saved step status instead of writing it to the database
+     */
+    private static class StepRecordingPlugin extends PdfBookInterchangeConvertStepPlugin {
+        private StepStatus savedStatus;
+
+        @Override
+        void saveStep(Step step) {
+            savedStatus = step.getBearbeitungsstatusEnum();
+        }
+    }
 }
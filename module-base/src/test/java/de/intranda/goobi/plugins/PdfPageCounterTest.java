@@ -0,0 +1,169 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.encryption.AccessPermission;
+import org.apache.pdfbox.pdmodel.encryption.StandardProtectionPolicy;
+import org.junit.Test;
+
+public class PdfPageCounterTest {
+
+    @Test
+    public void testCrossReferenceTable() throws IOException {
+        List<String> objects = new ArrayList<>();
+        objects.add("<< /Type /Catalog /Pages 2 0 R >>");
+        objects.add("<< /Type /Pages /Kids [3 0 R 4 0 R] /Count 5 >>");
+        objects.add("<< /Type /Pages /Parent 2 0 R /Kids [] /Count 2 >>");
+        objects.add("<< /Type /Pages /Parent 2 0 R /Kids [] /Count 3 >>");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, "%PDF-1.4\n");
+        List<Integer> offsets = new ArrayList<>();
+        for (int i = 0; i < objects.size(); i++) {
+            offsets.add(out.size());
+            write(out, (i + 1) + " 0 obj\n" + objects.get(i) + "\nendobj\n");
+        }
+        int xref = out.size();
+        write(out, "xref\n0 " + (objects.size() + 1) + "\n0000000000 65535 f \n");
+        for (int offset : offsets) {
+            write(out, String.format("%010d 00000 n \n", offset));
+        }
+        write(out, "trailer\n<< /Size " + (objects.size() + 1) + " /Root 1 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+
+        assertEquals(5, PdfPageCounter.countPages(writeFile(out.toByteArray())));
+    }
+
+    @Test
+    public void testCompressedObjectStream() throws IOException {
+        // catalog and page tree are stored in an object stream, the cross reference stream uses the PNG up predictor
+        String catalog = "<< /Type /Catalog /Pages 2 0 R >>";
+        String pages = "<< /Type /Pages /Kids [] /Count 312 >>";
+        String header = "1 0 2 " + (catalog.length() + 1) + " ";
+        byte[] objectStream = deflate((header + catalog + " " + pages).getBytes(StandardCharsets.ISO_8859_1));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, "%PDF-1.5\n");
+        int objectStreamOffset = out.size();
+        write(out, "3 0 obj\n<< /Type /ObjStm /N 2 /First " + header.length() + " /Filter /FlateDecode /Length " + objectStream.length
+                + " >>\nstream\n");
+        out.write(objectStream);
+        write(out, "\nendstream\nendobj\n");
+        int xref = out.size();
+
+        // entries for the objects 0 to 4 with the widths 1 2 1
+        int[][] entries = { { 0, 0, 255 }, { 2, 3, 0 }, { 2, 3, 1 }, { 1, objectStreamOffset, 0 }, { 1, xref, 0 } };
+        ByteArrayOutputStream rows = new ByteArrayOutputStream();
+        byte[] previous = new byte[4];
+        for (int[] entry : entries) {
+            byte[] row = { (byte) entry[0], (byte) (entry[1] >> 8), (byte) entry[1], (byte) entry[2] };
+            rows.write(2);
+            for (int i = 0; i < row.length; i++) {
+                rows.write(row[i] - previous[i]);
+            }
+            previous = row;
+        }
+        byte[] xrefStream = deflate(rows.toByteArray());
+        write(out, "4 0 obj\n<< /Type /XRef /Size 5 /W [1 2 1] /Root 1 0 R /Filter /FlateDecode /DecodeParms << /Columns 4 /Predictor 12 >> /Length "
+                + xrefStream.length + " >>\nstream\r\n");
+        out.write(xrefStream);
+        write(out, "\nendstream\nendobj\nstartxref\n" + xref + "\n%%EOF\n");
+
+        assertEquals(312, PdfPageCounter.countPages(writeFile(out.toByteArray())));
+    }
+
+    @Test
+    public void testBrokenCrossReference() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, "%PDF-1.4\n1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+        write(out, "2 0 obj\n<< /Kids [] /Type /Pages /Count 17 >>\nendobj\n");
+        write(out, "startxref\n99999\n%%EOF\n");
+
+        assertEquals(17, PdfPageCounter.countPages(writeFile(out.toByteArray())));
+    }
+
+    @Test
+    public void testIncrementalUpdate() throws IOException {
+        // the update replaces the page tree, the tree of the first revision is still part of the file
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, "%PDF-1.4\n");
+        int catalog = out.size();
+        write(out, "1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+        int pages = out.size();
+        write(out, "2 0 obj\n<< /Type /Pages /Kids [] /Count 9 >>\nendobj\n");
+        int xref = out.size();
+        write(out, "xref\n0 3\n0000000000 65535 f \n" + String.format("%010d 00000 n \n%010d 00000 n \n", catalog, pages));
+        write(out, "trailer\n<< /Size 3 /Root 1 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+
+        int updatedPages = out.size();
+        write(out, "2 0 obj\n<< /Type /Pages /Kids [] /Count 4 >>\nendobj\n");
+        int updateXref = out.size();
+        write(out, "xref\n2 1\n" + String.format("%010d 00000 n \n", updatedPages));
+        write(out, "trailer\n<< /Size 3 /Root 1 0 R /Prev " + xref + " >>\nstartxref\n" + updateXref + "\n%%EOF\n");
+
+        assertEquals(4, PdfPageCounter.countPages(writeFile(out.toByteArray())));
+    }
+
+    @Test
+    public void testEncryptedFile() throws IOException {
+        assertEquals(3, PdfPageCounter.countPages(writeEncryptedFile(3, "")));
+    }
+
+    @Test
+    public void testUserPassword() throws IOException {
+        Path file = writeEncryptedFile(2, "secret");
+        try {
+            PdfPageCounter.countPages(file);
+            fail("The page count of a file with a user password can not be read");
+        } catch (IOException e) {
+            // expected, the step must not guess the page count
+        }
+    }
+
+    private static Path writeEncryptedFile(int pages, String userPassword) throws IOException {
+        Path file = Files.createTempFile("pagecount", ".pdf");
+        file.toFile().deleteOnExit();
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                document.addPage(new PDPage());
+            }
+            document.protect(new StandardProtectionPolicy("owner", userPassword, new AccessPermission()));
+            document.save(file.toFile());
+        }
+        return file;
+    }
+
+    private static void write(ByteArrayOutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[data.length + 64];
+        int length = deflater.deflate(buffer);
+        deflater.end();
+        byte[] result = new byte[length];
+        System.arraycopy(buffer, 0, result, 0, length);
+        return result;
+    }
+
+    private static Path writeFile(byte[] data) throws IOException {
+        Path file = Files.createTempFile("pagecount", ".pdf");
+        file.toFile().deleteOnExit();
+        Files.write(file, data);
+        return file;
+    }
+}
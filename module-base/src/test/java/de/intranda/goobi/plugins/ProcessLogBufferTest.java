@@ -0,0 +1,61 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.goobi.production.enums.LogType;
+import org.junit.Test;
+
+public class ProcessLogBufferTest {
+
+    @Test
+    public void testEqualMessagesAreCounted() {
+        ProcessLogBuffer buffer = new ProcessLogBuffer();
+        buffer.add(LogType.INFO, "Page not found");
+        buffer.add(LogType.INFO, "Step plugin initialized");
+        buffer.add(LogType.INFO, "Page not found");
+        buffer.add(LogType.ERROR, "Page not found");
+        buffer.add(LogType.INFO, "Page not found");
+
+        List<ProcessLogBuffer.Entry> entries = buffer.drain();
+        assertEquals(3, entries.size());
+        assertEquals("Page not found (3 times)", entries.get(0).getMessage());
+        assertEquals("Step plugin initialized", entries.get(1).getMessage());
+        // the same message with another type is a separate entry
+        assertEquals(LogType.ERROR, entries.get(2).getType());
+        assertEquals("Page not found", entries.get(2).getMessage());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testGroupedMessagesAreSummarized() {
+        ProcessLogBuffer buffer = new ProcessLogBuffer();
+        buffer.add(LogType.INFO, "elements created without match", "Chapter 1 was created without match");
+        buffer.add(LogType.INFO, "elements created without match", "Chapter 2 was created without match");
+        buffer.add(LogType.INFO, "elements with changed title", "Chapter 3 has a changed title");
+
+        List<ProcessLogBuffer.Entry> entries = buffer.drain();
+        assertEquals(2, entries.size());
+        assertEquals("2 elements created without match", entries.get(0).getMessage());
+        assertEquals(List.of("Chapter 1 was created without match", "Chapter 2 was created without match"), entries.get(0).getDetails());
+        // a single message of a group is written as it is
+        assertEquals("Chapter 3 has a changed title", entries.get(1).getMessage());
+    }
+
+    @Test
+    public void testOneMessagePerType() {
+        ProcessLogBuffer buffer = new ProcessLogBuffer();
+        buffer.add(LogType.INFO, "first");
+        buffer.add(LogType.ERROR, "failed");
+        buffer.add(LogType.INFO, "second");
+        buffer.add(LogType.INFO, "second");
+
+        Map<LogType, String> messages = ProcessLogBuffer.joinByType(buffer.drain(), "Prefix: ");
+        assertEquals(List.of(LogType.INFO, LogType.ERROR), List.copyOf(messages.keySet()));
+        assertEquals("Prefix: first\nPrefix: second (2 times)", messages.get(LogType.INFO));
+        assertEquals("Prefix: failed", messages.get(LogType.ERROR));
+    }
+}
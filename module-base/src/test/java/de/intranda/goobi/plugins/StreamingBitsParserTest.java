@@ -0,0 +1,70 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+
+import org.apache.commons.configuration.SubnodeConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.intranda.goobi.plugins.model.Book;
+
+public class StreamingBitsParserTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSameBookWithAndWithoutStreaming() throws Exception {
+        Path bitsFile = ConversionFixtures.writeBitsFile(folder.getRoot().toPath(), 20);
+        SubnodeConfiguration config = ConversionHarness.loadConfiguration();
+        config.setProperty("useStreamingReader", "false");
+        Book complete = readBook(bitsFile, MappingPlan.compile(config), false);
+        config.setProperty("useStreamingReader", "true");
+        Book streamed = readBook(bitsFile, MappingPlan.compile(config), true);
+
+        assertEquals(20, complete.getBookParts().size());
+        assertEquals(complete, streamed);
+    }
+
+    @Test
+    public void testFallbackForExpressionsOutsideOfTheBookPart() throws Exception {
+        SubnodeConfiguration config = ConversionHarness.loadConfiguration();
+        config.setProperty("useStreamingReader", "true");
+        config.setProperty("elementMapping/lpage/@xpath", "../book-part-meta/lpage");
+        assertNull(MappingPlan.compile(config).getStreamingParser());
+    }
+
+    @Test
+    public void testExpressionsInsideOfTheSubtree() {
+        assertTrue(StreamingBitsParser.isInsideSubtree("./title-group/title"));
+        assertTrue(StreamingBitsParser.isInsideSubtree(".//name[@content-type='author']"));
+        assertTrue(StreamingBitsParser.isInsideSubtree("./*/title | ./label"));
+        // string literals are not checked
+        assertTrue(StreamingBitsParser.isInsideSubtree("./title[@type='../ancestor']"));
+
+        assertFalse(StreamingBitsParser.isInsideSubtree("../book-part-meta/lpage"));
+        assertFalse(StreamingBitsParser.isInsideSubtree("ancestor::book-part/@id"));
+        assertFalse(StreamingBitsParser.isInsideSubtree("//book-meta/isbn"));
+        assertFalse(StreamingBitsParser.isInsideSubtree("./fpage | /book/@id"));
+        assertFalse(StreamingBitsParser.isInsideSubtree("./title[@lang = /book/@xml:lang]"));
+        assertFalse(StreamingBitsParser.isInsideSubtree("id(./xref/@rid)/label"));
+    }
+
+    private static Book readBook(Path bitsFile, MappingPlan plan, boolean streaming) throws Exception {
+        assertEquals(streaming, plan.getStreamingParser() != null);
+        PdfBookInterchangeConvertStepPlugin plugin = new PdfBookInterchangeConvertStepPlugin();
+        BitsXmlReader reader = new BitsXmlReader(bitsFile, plan.getBookPartNodePath(), plugin, plan.getStreamingParser(), plan.getEntityResolver());
+        reader.setHierarchical(plan.isHierarchicalBookParts());
+        Book book = reader.readXml(plan.getPublicationMetadata(), plan.getPublicationPersons(), plan.getElementMetadata(), plan.getElementPersons(),
+                plan.getElementFpagePath(), plan.getElementLPagePath());
+        assertNotNull(book.getMetadata());
+        return book;
+    }
+}
@@ -0,0 +1,41 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import de.intranda.goobi.plugins.DocumentManager.DocstructPageMapping;
+
+public class TitleIndexTest {
+
+    @Test
+    public void testFindBest() {
+        DocstructPageMapping introduction = new DocstructPageMapping(null, 1, 10);
+        DocstructPageMapping methods = new DocstructPageMapping(null, 11, 30);
+        DocstructPageMapping results = new DocstructPageMapping(null, 31, 50);
+        DocstructPageMapping resultsAppendix = new DocstructPageMapping(null, 200, 210);
+        TitleIndex index = new TitleIndex(0.7);
+        index.add("1. Introduction", introduction);
+        index.add("Methods and Materials", methods);
+        index.add("Results", results);
+        index.add("Results", resultsAppendix);
+        index.add(null, new DocstructPageMapping(null, 51, 60));
+
+        assertEquals(introduction, index.findBest("Introduction", 2));
+        // each element is matched once
+        assertNull(index.findBest("Introduction", 2));
+        assertEquals(methods, index.findBest("Methods & Mat\u00e9rials", 12));
+        assertNull(index.findBest("Discussion", 51));
+        // equal titles are matched by the closest page
+        assertEquals(resultsAppendix, index.findBest("results", 199));
+        assertEquals(results, index.findBest("results", 199));
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("introduction", TitleIndex.normalize("1.2. Introduction"));
+        assertEquals("civil war", TitleIndex.normalize("Civil War"));
+        assertEquals("preface", TitleIndex.normalize("IV. Pr\u00e9face!"));
+    }
+}
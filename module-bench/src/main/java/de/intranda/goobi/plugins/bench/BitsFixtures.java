@@ -0,0 +1,128 @@
+package de.intranda.goobi.plugins.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jdom2.xpath.XPathExpression;
+
+import de.intranda.goobi.plugins.BitsXmlReader;
+import de.intranda.goobi.plugins.PdfBookInterchangeConvertStepPlugin.MetadataMapping;
+import de.intranda.goobi.plugins.PdfBookInterchangeConvertStepPlugin.PersonMapping;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+
+/**
+ * Synthetic BITS files and the mapping of the default plugin configuration for the benchmarks
+ */
+public final class BitsFixtures {
+
+    public static final int PAGES_PER_PART = 10;
+
+    // expressions of install/plugin_intranda_step_pdf_book_interchange_convert.xml
+    public static final String[][] PUBLICATION_METADATA = { { "./book/book-meta/book-title-group/book-title", "TitleDocMain" },
+            { "./book/book-meta/book-title-group/subtitle", "TitleDocSub1" }, { "./book/book-meta/isbn", "ISBN" } };
+    public static final String[][] PUBLICATION_PERSONS = {
+            { "//book-meta/contrib-group/contrib/name[@content-type='author']", "./given-names", "./surname", "Author" },
+            { "//book-meta/contrib-group/contrib/name[@content-type='editor']", "./given-names", "./surname", "Editor" } };
+    public static final String[][] ELEMENT_METADATA = { { "./title-group/title", "TitleDocMain" }, { "./title-group/subtitle", "TitleDocSub1" } };
+    public static final String[][] ELEMENT_PERSONS = { { ".//name[@content-type='author']", "./given-names", "./surname", "Author" },
+            { ".//name[@content-type='editor']", "./given-names", "./surname", "Editor" } };
+    public static final String BOOK_PART_NODE = "./book/book-body/book-part/book-part-meta";
+    public static final String FPAGE = "./fpage";
+    public static final String LPAGE = "./lpage";
+
+    private BitsFixtures() {
+    }
+
+    /**
+     * writes a BITS file with the given number of book parts. Each part has a title, an author and a body with some paragraphs and covers
+     * {@link #PAGES_PER_PART} pages
+     *
+     * @return the written file
+     */
+    public static Path writeBitsFile(Path folder, int bookParts) throws IOException {
+        Path file = folder.resolve("bits_" + bookParts + ".xml");
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.write("<book xmlns:xlink=\"http://www.w3.org/1999/xlink\" dtd-version=\"2.0\" xml:lang=\"en\">\n");
+            out.write("<book-meta><book-title-group><book-title>Synthetic handbook</book-title><subtitle>" + bookParts
+                    + " parts</subtitle></book-title-group>\n");
+            out.write("<contrib-group>" + name("author", "Ada", "Lovelace") + name("editor", "Charles", "Babbage") + "</contrib-group>\n");
+            out.write("<isbn>978-3-16-148410-0</isbn></book-meta>\n<book-body>\n");
+            for (int i = 0; i < bookParts; i++) {
+                int firstPage = i * PAGES_PER_PART + 1;
+                out.write("<book-part id=\"part" + i + "\" book-part-type=\"chapter\"><book-part-meta>");
+                out.write("<title-group><title>Chapter " + (i + 1) + "</title><subtitle>Subtitle of chapter " + (i + 1) + "</subtitle></title-group>");
+                out.write("<contrib-group>" + name("author", "Author", "Number " + i) + "</contrib-group>");
+                out.write("<fpage>" + firstPage + "</fpage><lpage>" + (firstPage + PAGES_PER_PART - 1) + "</lpage></book-part-meta>\n<body>");
+                for (int p = 0; p < 5; p++) {
+                    out.write("<sec><title>Section " + p + "</title><p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod "
+                            + "tempor incididunt ut labore et dolore magna aliqua. <italic>Ut enim</italic> ad minim veniam.</p></sec>");
+                }
+                out.write("</body></book-part>\n");
+            }
+            out.write("</book-body>\n</book>\n");
+        }
+        return file;
+    }
+
+    private static String name(String type, String givenNames, String surname) {
+        return "<contrib><name content-type=\"" + type + "\"><surname>" + surname + "</surname><given-names>" + givenNames
+                + "</given-names></name></contrib>";
+    }
+
+    /**
+     * @return the preferences of install/ruleset.xml or of the ruleset given by the system property bench.ruleset
+     */
+    public static Prefs loadPrefs() throws PreferencesException {
+        Path ruleset = Paths.get(System.getProperty("bench.ruleset", "install/ruleset.xml"));
+        if (!Files.exists(ruleset)) {
+            ruleset = Paths.get("..", "install", "ruleset.xml");
+        }
+        Prefs prefs = new Prefs();
+        prefs.loadPrefs(ruleset.toString());
+        return prefs;
+    }
+
+    /**
+     * @return all xpath expressions of the configuration
+     */
+    public static List<String> getAllExpressions() {
+        List<String> expressions = new ArrayList<>();
+        for (String[][] mappings : Arrays.asList(PUBLICATION_METADATA, PUBLICATION_PERSONS, ELEMENT_METADATA, ELEMENT_PERSONS)) {
+            for (String[] mapping : mappings) {
+                expressions.addAll(Arrays.asList(mapping).subList(0, mapping.length == 2 ? 1 : 3));
+            }
+        }
+        expressions.addAll(Arrays.asList(BOOK_PART_NODE, FPAGE, LPAGE));
+        return expressions;
+    }
+
+    public static List<MetadataMapping> metadataMappings(String[][] mappings) {
+        List<MetadataMapping> result = new ArrayList<>();
+        for (String[] mapping : mappings) {
+            result.add(new MetadataMapping(BitsXmlReader.compileXpath(mapping[0]), mapping[1]));
+        }
+        return result;
+    }
+
+    public static List<PersonMapping> personMappings(String[][] mappings) {
+        List<PersonMapping> result = new ArrayList<>();
+        for (String[] mapping : mappings) {
+            result.add(new PersonMapping(BitsXmlReader.compileXpath(mapping[1]), BitsXmlReader.compileXpath(mapping[2]), mapping[3],
+                    BitsXmlReader.compileXpath(mapping[0])));
+        }
+        return result;
+    }
+
+    public static XPathExpression<Object> xpath(String expression) {
+        return BitsXmlReader.compileXpath(expression);
+    }
+}
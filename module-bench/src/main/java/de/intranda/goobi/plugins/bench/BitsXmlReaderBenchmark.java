@@ -0,0 +1,78 @@
+package de.intranda.goobi.plugins.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.jdom2.JDOMException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intranda.goobi.plugins.BitsXmlReader;
+import de.intranda.goobi.plugins.PdfBookInterchangeConvertStepPlugin;
+import de.intranda.goobi.plugins.StreamingBitsParser;
+import de.intranda.goobi.plugins.model.Book;
+
+/**
+ * Measures reading the BITS file into the book model, with the complete and with the streaming parser
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BitsXmlReaderBenchmark {
+
+    @Param({ "10", "1000", "50000" })
+    private int bookParts;
+
+    @Param({ "false", "true" })
+    private boolean streaming;
+
+    private Path folder;
+    private Path bitsFile;
+    private StreamingBitsParser streamingParser;
+    private PdfBookInterchangeConvertStepPlugin plugin;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("bits-bench");
+        bitsFile = BitsFixtures.writeBitsFile(folder, bookParts);
+        plugin = new PdfBookInterchangeConvertStepPlugin();
+        streamingParser = streaming ? StreamingBitsParser.create(List.of(BitsFixtures.PUBLICATION_METADATA[0][0],
+                BitsFixtures.PUBLICATION_METADATA[1][0], BitsFixtures.PUBLICATION_METADATA[2][0], BitsFixtures.PUBLICATION_PERSONS[0][0],
+                BitsFixtures.PUBLICATION_PERSONS[1][0], BitsFixtures.BOOK_PART_NODE)) : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Book readXml() throws JDOMException, IOException {
+        BitsXmlReader reader = new BitsXmlReader(bitsFile, BitsFixtures.xpath(BitsFixtures.BOOK_PART_NODE), plugin, streamingParser, null);
+        return reader.readXml(BitsFixtures.metadataMappings(BitsFixtures.PUBLICATION_METADATA),
+                BitsFixtures.personMappings(BitsFixtures.PUBLICATION_PERSONS), BitsFixtures.metadataMappings(BitsFixtures.ELEMENT_METADATA),
+                BitsFixtures.personMappings(BitsFixtures.ELEMENT_PERSONS), BitsFixtures.xpath(BitsFixtures.FPAGE),
+                BitsFixtures.xpath(BitsFixtures.LPAGE));
+    }
+}
@@ -0,0 +1,38 @@
+package de.intranda.goobi.plugins.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.intranda.goobi.plugins.BitsXmlReader;
+
+/**
+ * Measures compiling all xpath expressions of the default configuration
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompileXpathBenchmark {
+
+    private final List<String> expressions = BitsFixtures.getAllExpressions();
+
+    @Benchmark
+    public void compileXpath(Blackhole blackhole) {
+        for (String expression : expressions) {
+            blackhole.consume(BitsXmlReader.compileXpath(expression));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package de.intranda.goobi.plugins.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jdom2.JDOMException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.intranda.goobi.plugins.BitsXmlReader;
+import de.intranda.goobi.plugins.DocumentManager;
+import de.intranda.goobi.plugins.PdfBookInterchangeConvertStepPlugin;
+import de.intranda.goobi.plugins.model.Book;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Metadata;
+import ugh.dl.Prefs;
+import ugh.exceptions.UGHException;
+import ugh.fileformats.mets.MetsMods;
+
+/**
+ * Measures the mapping of a read book to the METS file. Every second book part matches a structure element that was created from the table
+ * of contents of the PDF, the others are created with new pages
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MapBookToMetsBenchmark {
+
+    private static final String STRUCTURE_TYPE_PDF = "Chapter";
+    private static final String STRUCTURE_TYPE_BITS = "Part";
+
+    @Param({ "10", "1000", "50000" })
+    private int bookParts;
+
+    private Prefs prefs;
+    private Book book;
+    private List<Path> imageFiles;
+    private PdfBookInterchangeConvertStepPlugin plugin;
+    private Fileformat fileformat;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, JDOMException, UGHException {
+        prefs = BitsFixtures.loadPrefs();
+        plugin = new PdfBookInterchangeConvertStepPlugin();
+        Path folder = Files.createTempDirectory("bits-bench");
+        Path bitsFile = BitsFixtures.writeBitsFile(folder, bookParts);
+        book = new BitsXmlReader(bitsFile, BitsFixtures.xpath(BitsFixtures.BOOK_PART_NODE), plugin).readXml(
+                BitsFixtures.metadataMappings(BitsFixtures.PUBLICATION_METADATA), BitsFixtures.personMappings(BitsFixtures.PUBLICATION_PERSONS),
+                BitsFixtures.metadataMappings(BitsFixtures.ELEMENT_METADATA), BitsFixtures.personMappings(BitsFixtures.ELEMENT_PERSONS),
+                BitsFixtures.xpath(BitsFixtures.FPAGE), BitsFixtures.xpath(BitsFixtures.LPAGE));
+        Files.delete(bitsFile);
+        Files.delete(folder);
+        imageFiles = new ArrayList<>();
+        for (int page = 1; page <= bookParts * BitsFixtures.PAGES_PER_PART; page++) {
+            imageFiles.add(Paths.get(String.format("%08d.tif", page)));
+        }
+    }
+
+    /**
+     * the mapping changes the document, therefore each invocation gets a new one
+     */
+    @Setup(Level.Invocation)
+    public void createDocument() throws UGHException {
+        fileformat = new MetsMods(prefs);
+        DigitalDocument digitalDocument = new DigitalDocument();
+        fileformat.setDigitalDocument(digitalDocument);
+        DocStruct logical = digitalDocument.createDocStruct(prefs.getDocStrctTypeByName("Monograph"));
+        DocStruct physical = digitalDocument.createDocStruct(prefs.getDocStrctTypeByName("BoundBook"));
+        digitalDocument.setLogicalDocStruct(logical);
+        digitalDocument.setPhysicalDocStruct(physical);
+        for (int part = 0; part < bookParts; part += 2) {
+            DocStruct chapter = digitalDocument.createDocStruct(prefs.getDocStrctTypeByName(STRUCTURE_TYPE_PDF));
+            logical.addChild(chapter);
+            int firstPage = part * BitsFixtures.PAGES_PER_PART + 1;
+            for (int pageNumber = firstPage; pageNumber < firstPage + BitsFixtures.PAGES_PER_PART; pageNumber++) {
+                DocStruct page = digitalDocument.createDocStruct(prefs.getDocStrctTypeByName("page"));
+                Metadata physPageNumber = new Metadata(prefs.getMetadataTypeByName("physPageNumber"));
+                physPageNumber.setValue(String.valueOf(pageNumber));
+                page.addMetadata(physPageNumber);
+                physical.addChild(page);
+                chapter.addReferenceTo(page, "logical_physical");
+            }
+        }
+    }
+
+    @Benchmark
+    public Fileformat mapBookToMets() throws UGHException {
+        DocumentManager manager = new DocumentManager(fileformat, STRUCTURE_TYPE_BITS, STRUCTURE_TYPE_PDF, new ArrayList<>(imageFiles), prefs, plugin);
+        return manager.mapBookToMets(book);
+    }
+}